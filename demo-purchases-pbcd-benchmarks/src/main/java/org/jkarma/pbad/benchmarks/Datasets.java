@@ -0,0 +1,98 @@
+package org.jkarma.pbad.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.pbad.model.ItemDictionary;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ * Inputs of the benchmarks, read from the bundled purchases file and
+ * optionally scaled up with synthetic rows.
+ */
+public class Datasets {
+
+	/**
+	 * The bundled purchases file, relative to the benchmark module.
+	 */
+	public static final String DEFAULT_FILE = "../12544-321-150-226.csv";
+
+	/**
+	 * The probability of replacing an attribute value in a synthetic row.
+	 */
+	private static final double NOISE = 0.1;
+
+
+
+	/**
+	 * Reads the rows of a purchases file, skipping its header.
+	 * @param fileName The path of the CSV file.
+	 * @return the rows of the file.
+	 */
+	public static List<String[]> read(String fileName) {
+		CsvParserSettings settings = new CsvParserSettings();
+		settings.setLineSeparatorDetectionEnabled(true);
+		settings.setHeaderExtractionEnabled(true);
+		settings.setNullValue("");
+		settings.setEmptyValue("");
+		return new CsvParser(settings).parseAll(new File(fileName));
+	}
+
+
+	/**
+	 * Scales a dataset up by appending noisy copies of its rows. Every copy
+	 * replays the original rows in order, replacing each attribute value with
+	 * the value of the same attribute in a random row with a small probability,
+	 * so that the copies share the item distribution of the original data
+	 * without being exact duplicates.
+	 * @param rows The original rows.
+	 * @param factor The number of times the dataset is replayed.
+	 * @param seed The seed of the random generator.
+	 * @return the scaled rows, with fresh transaction ids.
+	 */
+	public static List<String[]> scale(List<String[]> rows, int factor, long seed) {
+		if(rows==null || rows.isEmpty() || factor<1) {
+			throw new IllegalArgumentException();
+		}
+		Random random = new Random(seed);
+		List<String[]> scaled = new ArrayList<>(rows.size() * factor);
+		int id = Integer.parseInt(rows.get(0)[0]);
+
+		for(int c=0; c<factor; c++) {
+			for(String[] row : rows) {
+				String[] copy = row.clone();
+				if(c > 0) {
+					//we skip the transaction id, the card id and the label
+					for(int j=2; j<copy.length-1; j++) {
+						if(random.nextDouble() < NOISE) {
+							copy[j] = rows.get(random.nextInt(rows.size()))[j];
+						}
+					}
+				}
+				copy[0] = Integer.toString(id++);
+				scaled.add(copy);
+			}
+		}
+		return scaled;
+	}
+
+
+	/**
+	 * Converts rows into transactions, encoding their items with a dictionary.
+	 * @param rows The rows to be converted.
+	 * @param dictionary The item dictionary.
+	 * @return the transactions, in the order of the rows.
+	 */
+	public static List<Transazione> toTransactions(List<String[]> rows, ItemDictionary<String> dictionary) {
+		List<Transazione> transactions = new ArrayList<>(rows.size());
+		for(String[] row : rows) {
+			transactions.add(new Transazione(row, dictionary));
+		}
+		return transactions;
+	}
+}
@@ -0,0 +1,122 @@
+package org.jkarma.pbad.benchmarks;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.heuristics.AreaHeuristic;
+import org.jkarma.mining.joiners.ProjectedDB;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.mining.providers.ProjectedDBProvider;
+import org.jkarma.mining.providers.TidSetProvider;
+import org.jkarma.mining.structures.MiningStrategy;
+import org.jkarma.mining.structures.Strategies;
+import org.jkarma.mining.windows.Windows;
+import org.jkarma.pbad.detectors.LatticeSnapshot;
+import org.jkarma.pbcd.descriptors.Descriptors;
+import org.jkarma.pbcd.detectors.Detectors;
+import org.jkarma.pbcd.detectors.PBCD;
+import org.jkarma.pbcd.events.ChangeDescriptionCompletedEvent;
+import org.jkarma.pbcd.events.ChangeDescriptionStartedEvent;
+import org.jkarma.pbcd.events.ChangeDetectedEvent;
+import org.jkarma.pbcd.events.ChangeNotDetectedEvent;
+import org.jkarma.pbcd.events.PBCDEventListener;
+import org.jkarma.pbcd.events.PatternUpdateCompletedEvent;
+import org.jkarma.pbcd.events.PatternUpdateStartedEvent;
+import org.jkarma.pbcd.patterns.Patterns;
+import org.jkarma.pbcd.similarities.UnweightedJaccard;
+
+/**
+ * Change detectors configured as in the demos, with the block size, the depth
+ * and the beam width left as parameters.
+ */
+public class Fixtures {
+
+	public static final float MIN_SUP = 0.15f;
+	public static final float MIN_CHANGE = 0.9f;
+	public static final float MIN_ANOMALY = 0.05f;
+	public static final double MIN_GR = 1.25;
+
+
+
+	/**
+	 * Builds a change detector mining frequent itemsets with eclat, as in DemoFPOF.
+	 */
+	public static PBCD<Transazione, String, TidSet, Boolean> frequent(int blockSize, int depth, int beam){
+		TidSetProvider<String> accessor = new TidSetProvider<>(Windows.blockwiseSliding());
+		MiningStrategy<String, TidSet> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(depth).eclat(MIN_SUP)
+			.beam(accessor, new AreaHeuristic<String,TidSet>(), beam);
+
+		return Detectors.upon(strategy)
+			.unweighted((p,t) -> Patterns.isFrequent(p,MIN_SUP,t), new UnweightedJaccard())
+			.describe(Descriptors.partialEps(MIN_SUP, 1.00))
+			.build(MIN_CHANGE, blockSize);
+	}
+
+
+	/**
+	 * Builds a change detector mining closed itemsets with lcm, as in DemoFPOFClosed.
+	 */
+	public static PBCD<Transazione, String, ProjectedDB<String>, Boolean> closed(int blockSize, int depth, int beam){
+		ProjectedDBProvider<String> accessor = new ProjectedDBProvider<>(Windows.blockwiseSliding());
+		MiningStrategy<String, ProjectedDB<String>> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(depth).lcm(MIN_SUP)
+			.beam(accessor, new AreaHeuristic<String,ProjectedDB<String>>(), beam);
+
+		return Detectors.upon(strategy)
+			.unweighted((p,t) -> Patterns.isFrequent(p,MIN_SUP,t), new UnweightedJaccard())
+			.describe(Descriptors.partialEps(MIN_SUP, 1.00))
+			.build(MIN_CHANGE, blockSize);
+	}
+
+
+	/**
+	 * Feeds a change detector with a sequence of transactions and returns a
+	 * snapshot of its lattice, as it was when the latest block was completed.
+	 */
+	public static <C> LatticeSnapshot<String, C> train(
+			PBCD<Transazione, String, C, Boolean> pbcd, List<Transazione> transactions){
+		//only the snapshot of the latest block is kept
+		AtomicReference<LatticeSnapshot<String, C>> latest = new AtomicReference<>();
+		PBCDEventListener<String, C> listener = new PBCDEventListener<String, C>(){
+
+			@Override
+			public void changeDetected(ChangeDetectedEvent<String, C> event) {
+				latest.set(LatticeSnapshot.of(pbcd.getLattice()));
+			}
+
+			@Override
+			public void changeNotDetected(ChangeNotDetectedEvent<String, C> event) {
+				latest.set(LatticeSnapshot.of(pbcd.getLattice()));
+			}
+
+			@Override
+			public void changeDescriptionCompleted(ChangeDescriptionCompletedEvent<String, C> event) {
+			}
+
+			@Override
+			public void changeDescriptionStarted(ChangeDescriptionStartedEvent<String, C> event) {
+			}
+
+			@Override
+			public void patternUpdateCompleted(PatternUpdateCompletedEvent<String, C> event) {
+			}
+
+			@Override
+			public void patternUpdateStarted(PatternUpdateStartedEvent<String, C> event) {
+			}
+		};
+
+		pbcd.registerListener(listener);
+		transactions.forEach(pbcd);
+		pbcd.unregisterListener(listener);
+		if(latest.get()==null) {
+			throw new IllegalStateException("no block has been completed");
+		}
+		return latest.get();
+	}
+}
@@ -0,0 +1,118 @@
+package org.jkarma.pbad.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.detectors.AnomalyDetectedEvent;
+import org.jkarma.pbad.detectors.AnomalyNotDetectedEvent;
+import org.jkarma.pbad.detectors.PBAD;
+import org.jkarma.pbad.detectors.PBADEventListener;
+import org.jkarma.pbad.model.ItemDictionary;
+import org.jkarma.pbcd.events.ChangeDetectedEvent;
+import org.jkarma.pbcd.events.ChangeNotDetectedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the end-to-end throughput of PBAD.accept, mining included, in
+ * transactions per second. Each invocation replays a fixed number of
+ * transactions through a fresh detector built as in DemoFPOF. The replayed
+ * transactions are taken from the synthetic copies of the bundled file,
+ * right after its original rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PBADBenchmark {
+
+	/**
+	 * The number of transactions replayed by each invocation.
+	 */
+	public static final int REPLAY = 2000;
+
+	@Param({"10", "50", "200"})
+	public int blockSize;
+
+	@Param({"4", "8", "18"})
+	public int depth;
+
+	@Param({"5", "20", "50"})
+	public int beam;
+
+	/**
+	 * The number of times the bundled file is replayed, the original rows included.
+	 */
+	@Param({"8"})
+	public int scale;
+
+	@Param({Datasets.DEFAULT_FILE})
+	public String file;
+
+	private List<Transazione> transactions;
+
+
+
+	@Setup
+	public void setup() {
+		List<String[]> rows = Datasets.read(this.file);
+		List<Transazione> scaled = Datasets.toTransactions(
+			Datasets.scale(rows, this.scale, 42L), new ItemDictionary<>()
+		);
+		//the first copy is the original file, which is not replayed
+		if(scaled.size() - rows.size() < REPLAY) {
+			throw new IllegalStateException("the synthetic rows are less than "+REPLAY);
+		}
+		this.transactions = scaled.subList(rows.size(), rows.size() + REPLAY);
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(REPLAY)
+	public void accept(Blackhole blackhole) {
+		PBAD<Transazione, String, TidSet> pbad = new PBAD<>(
+			Fixtures.frequent(this.blockSize, this.depth, this.beam),
+			new FPOFAnomaly<>(Fixtures.MIN_SUP), Fixtures.MIN_ANOMALY
+		);
+		pbad.registerListener(new PBADEventListener<Transazione, String, TidSet>(){
+
+			@Override
+			public void anomalyDetected(AnomalyDetectedEvent<Transazione, String> event) {
+				blackhole.consume(event.getAnomalyScore());
+			}
+
+			@Override
+			public void anomalyNotDetected(AnomalyNotDetectedEvent<Transazione, String> event) {
+				blackhole.consume(event.getAnomalyScore());
+			}
+
+			@Override
+			public void changeDetected(ChangeDetectedEvent<String, TidSet> event) {
+				blackhole.consume(event);
+			}
+
+			@Override
+			public void changeNotDetected(ChangeNotDetectedEvent<String, TidSet> event) {
+				blackhole.consume(event);
+			}
+
+		});
+		this.transactions.forEach(pbad);
+	}
+}
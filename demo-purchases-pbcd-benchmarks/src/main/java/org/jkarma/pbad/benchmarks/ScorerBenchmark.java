@@ -0,0 +1,162 @@
+package org.jkarma.pbad.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.interfaces.Lattice;
+import org.jkarma.pbad.anomalies.BlockScorer;
+import org.jkarma.pbad.anomalies.CompiledAnomaly;
+import org.jkarma.pbad.anomalies.EPPOFAnomaly;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.anomalies.NegativeFPOFAnomaly;
+import org.jkarma.pbad.anomalies.ScoringModel;
+import org.jkarma.pbad.anomalies.WCFPOFAnomaly;
+import org.jkarma.pbad.model.ItemDictionary;
+import org.jkarma.pbcd.patterns.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the anomaly scores against a fixed lattice,
+ * mined once per trial from the bundled dataset or one of its scaled variants.
+ * The apply benchmark prepares the score for each transaction, as the lattice-wide
+ * contract used by PBAD for generic scores does, the score benchmark goes through
+ * the block scorer prepared once per block, and the compile benchmark measures
+ * the cost of preparing it. The block benchmarks score a whole block of transactions,
+ * one at a time or all at once on a bit matrix of the block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScorerBenchmark {
+
+	@Param({"FPOF", "NegFPOF", "EPPOF", "WCFPOF"})
+	public String scorer;
+
+	@Param({"1", "4", "16"})
+	public int scale;
+
+	@Param({"10"})
+	public int blockSize;
+
+	@Param({"4", "18"})
+	public int depth;
+
+	@Param({"20"})
+	public int beam;
+
+	@Param({Datasets.DEFAULT_FILE})
+	public String file;
+
+	private List<Transazione> transactions;
+	private ToDoubleFunction<Transazione> apply;
+	private ToDoubleFunction<Transazione> score;
+	private Runnable compile;
+	private ScoringModel<String> model;
+	private double[] blockScores;
+	private int next;
+
+
+
+	@Setup
+	public void setup() {
+		ItemDictionary<String> dictionary = new ItemDictionary<>();
+		this.transactions = Datasets.toTransactions(
+			Datasets.scale(Datasets.read(this.file), this.scale, 42L), dictionary
+		);
+
+		switch(this.scorer) {
+			case "FPOF":
+				this.prepare(new FPOFAnomaly<>(Fixtures.MIN_SUP),
+					Fixtures.train(Fixtures.frequent(this.blockSize, this.depth, this.beam), this.transactions));
+				break;
+			case "NegFPOF":
+				this.prepare(new NegativeFPOFAnomaly<>(Fixtures.MIN_SUP),
+					Fixtures.train(Fixtures.frequent(this.blockSize, this.depth, this.beam), this.transactions));
+				break;
+			case "EPPOF":
+				this.prepare(new EPPOFAnomaly<>(Fixtures.MIN_SUP, Fixtures.MIN_GR),
+					Fixtures.train(Fixtures.frequent(this.blockSize, this.depth, this.beam), this.transactions));
+				break;
+			case "WCFPOF":
+				this.prepare(new WCFPOFAnomaly<>(),
+					Fixtures.train(Fixtures.closed(this.blockSize, this.depth, this.beam), this.transactions));
+				break;
+			default:
+				throw new IllegalArgumentException(this.scorer);
+		}
+	}
+
+
+	private <C> void prepare(CompiledAnomaly<Transazione, String, C> anomaly, Lattice<Pattern<String, C>> lattice) {
+		this.apply = t -> anomaly.prepare(lattice).score(t);
+		BlockScorer<? super Transazione> prepared = anomaly.prepare(lattice);
+		this.score = prepared::score;
+		this.compile = () -> anomaly.compile(lattice);
+		this.model = anomaly.compile(lattice);
+		this.blockScores = new double[this.blockSize];
+	}
+
+
+	private Transazione next() {
+		Transazione t = this.transactions.get(this.next);
+		this.next = (this.next + 1) % this.transactions.size();
+		return t;
+	}
+
+
+	@Benchmark
+	public double apply() {
+		return this.apply.applyAsDouble(this.next());
+	}
+
+
+	@Benchmark
+	public double score() {
+		return this.score.applyAsDouble(this.next());
+	}
+
+
+	private List<Transazione> nextBlock() {
+		int from = this.next;
+		this.next = (this.next + this.blockSize) % (this.transactions.size() - this.blockSize);
+		return this.transactions.subList(from, from + this.blockSize);
+	}
+
+
+	@Benchmark
+	public double[] scoreBlock() {
+		List<Transazione> block = this.nextBlock();
+		for(int i=0; i<block.size(); i++) {
+			this.blockScores[i] = this.model.score(block.get(i));
+		}
+		return this.blockScores;
+	}
+
+
+	@Benchmark
+	public double[] batchBlock() {
+		this.model.score(this.nextBlock(), this.blockScores);
+		return this.blockScores;
+	}
+
+
+	@Benchmark
+	public void compile() {
+		this.compile.run();
+	}
+}
@@ -15,14 +15,12 @@
  ******************************************************************************/
 package org.jkarma.examples.purchases;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.jkarma.examples.purchases.model.Transazione;
@@ -35,8 +33,13 @@ import org.jkarma.mining.windows.Windows;
 import org.jkarma.pbad.anomalies.EPPOFAnomaly;
 import org.jkarma.pbad.detectors.AnomalyDetectedEvent;
 import org.jkarma.pbad.detectors.AnomalyNotDetectedEvent;
+import org.jkarma.pbad.detectors.BoundedDispatcher;
+import org.jkarma.pbad.detectors.FrequencyFilter;
 import org.jkarma.pbad.detectors.PBAD;
 import org.jkarma.pbad.detectors.PBADEventListener;
+import org.jkarma.pbad.metrics.ScoreRecorder;
+import org.jkarma.pbad.metrics.StreamingEvaluation;
+import org.jkarma.pbad.metrics.ThresholdCurve;
 import org.jkarma.pbcd.descriptors.Descriptors;
 import org.jkarma.pbcd.detectors.Detectors;
 import org.jkarma.pbcd.detectors.PBCD;
@@ -69,25 +72,86 @@ public class DemoEPPOF{
 	@Option(name="-d", aliases="--depth", usage="Depth of research space of patterns")
 	public int depth = 3;
 
+	@Option(name="-p", aliases="--parallel", usage="Score the transactions of each block in parallel")
+	public boolean parallel = false;
+
+	@Option(name="-a", aliases="--async", usage="Deliver the events on a separate thread, buffering at most the given number of them")
+	public int async = 0;
+
+	@Option(name="-r", aliases="--onArrival", usage="Score each example on arrival, against the patterns of the last completed block")
+	public boolean onArrival = false;
+
+	@Option(name="-b", aliases="--bounded", usage="Only compute the scores as far as needed for detecting the anomalies")
+	public boolean bounded = false;
+
+	@Option(name="-rs", aliases="--restore", usage="Checkpoint file the detector is restored from before starting")
+	public File restore = null;
+
+	@Option(name="-ck", aliases="--checkpoint", usage="Checkpoint file the detector is saved to once finished")
+	public File checkpoint = null;
+
+	@Option(name="-sw", aliases="--sweep", usage="File the outcomes for every anomaly threshold are written to, as comma-separated values")
+	public File sweep = null;
+
+	@Option(name="-sc", aliases="--scoreCache", usage="Number of itemsets whose scores are memoized within a block, 0 for none")
+	public int scoreCache = 0;
+
+	@Option(name="-fr", aliases="--rareFrequency", usage="Frequency in the block below which an item makes an example anomalous without scoring it, 0 for none")
+	public double rareFrequency = 0;
+
+	@Option(name="-fc", aliases="--commonFrequency", usage="Frequency in the block from which items make an example normal without scoring it, 0 for none")
+	public double commonFrequency = 0;
+
+	@Option(name="-bt", aliases="--batch", usage="Score all the examples of each block at once, on a bit matrix of the block")
+	public boolean batch = false;
+
+	@Option(name="-pl", aliases="--pipeline", usage="Score each block on a separate thread while mining the next ones, queueing at most the given number of blocks")
+	public int pipeline = 0;
+
 	@Option(name="-f", aliases="--file", usage="Fully qualified path and name of file.", required=true)
 	private static String fileName;
 
-	public void run() throws IOException {
+	public void run() throws IOException, InterruptedException {
 		//we load the dataset
 		Stream<Transazione> dataset =  this.getDataset(fileName);
 
 		//we build a change detector based on frequent closed itemsets.
 		PBCD<Transazione,String,TidSet,Boolean> pbcd = this.getPBCD(this.minSup);
 		
+		//events are optionally delivered on a separate thread, without losing any of them
+		BoundedDispatcher dispatcher = null;
+		if(this.async > 0) {
+			dispatcher = new BoundedDispatcher(this.async, BoundedDispatcher.Policy.BLOCK);
+		}
+		
 		//then we build an anomaly detector based on the change detector delegate.
 		EPPOFAnomaly<Transazione, String, TidSet> scoring = new EPPOFAnomaly<>(this.minSup, 1.25);
 		PBAD<Transazione, String, TidSet> pbad = new PBAD<>(
-			pbcd, scoring, this.minAnomaly
+			pbcd, scoring, this.minAnomaly, dispatcher
 		);
+		if(this.parallel) {
+			pbad.setExecutor(ForkJoinPool.commonPool());
+		}
+		pbad.setScoreOnArrival(this.onArrival);
+		//thresholds can only be swept over the exact scores
+		pbad.setExactScores(!this.bounded || this.sweep!=null);
+		pbad.setScoreCache(this.scoreCache);
+		pbad.setBatchScoring(this.batch);
+		pbad.setPipeline(this.pipeline);
+		//thresholds can only be swept over the scores of every transaction
+		if(this.sweep==null && (this.rareFrequency > 0 || this.commonFrequency > 0)) {
+			pbad.setFrequencyFilter(new FrequencyFilter<>(this.rareFrequency,
+				(this.commonFrequency > 0) ? this.commonFrequency : Double.POSITIVE_INFINITY));
+		}
+		pbad.setWindowMembership(true);
+		if(this.restore!=null) {
+			pbad.restore(this.restore);
+		}
 		
-		//we collect prediction
-		Vector<Boolean> predetti = new Vector<>();
-		Vector<Boolean> reali = new Vector<>();
+		//we evaluate the predictions while they are made, over the whole stream
+		//and over the latest ten blocks
+		StreamingEvaluation evaluation = new StreamingEvaluation(10 * this.blockSize);
+		ScoreRecorder recorder = (this.sweep!=null) ? new ScoreRecorder() : null;
 		
 		//we listen for anomaly detection events
 		pbad.registerListener(new PBADEventListener<Transazione, String, TidSet>(){
@@ -101,8 +165,10 @@ public class DemoEPPOF{
 					System.out.println("t:"+t.getId()+", score:"+event.getAnomalyScore());
 				}
 				
-				predetti.add(true);
-				reali.add(t.isAnomaly());
+				evaluation.record(true, t.isAnomaly());
+				if(recorder!=null && !event.isPrefiltered()) {
+					recorder.record(event.getAnomalyScore(), t.isAnomaly());
+				}
 			}
 
 			@Override
@@ -114,8 +180,10 @@ public class DemoEPPOF{
 					System.out.println("t:"+t.getId()+", score:"+event.getAnomalyScore());
 				}
 				
-				predetti.add(false);
-				reali.add(t.isAnomaly());
+				evaluation.record(false, t.isAnomaly());
+				if(recorder!=null && !event.isPrefiltered()) {
+					recorder.record(event.getAnomalyScore(), t.isAnomaly());
+				}
 			}
 
 			@Override
@@ -133,45 +201,53 @@ public class DemoEPPOF{
 		
 		//we consume every data point
 		dataset.forEach(pbad);
+		dataset.close();
 		
-		//once finished we compute the confusion matrix
-		ConfusionMatrix cm = new ConfusionMatrix();
-		for(int i=0; i<predetti.size(); i++) {
-			if(predetti.get(i) == false && reali.get(i) == false){
-				cm.increaseValue("NON-FRAUD", "NON-FRAUD", 1);
-			}else if(predetti.get(i) == true && reali.get(i) == false){
-				cm.increaseValue("NON-FRAUD", "FRAUD", 1);
-			}else if(predetti.get(i) == false && reali.get(i) == true){
-				cm.increaseValue("FRAUD", "NON-FRAUD", 1);
-			}else{
-				cm.increaseValue("FRAUD", "FRAUD", 1);
-			}
+		//we wait for the scoring of the pending blocks
+		pbad.flush();
+		
+		if(this.checkpoint!=null) {
+			pbad.checkpoint(this.checkpoint);
 		}
+		
+		//we wait for the delivery of the pending events
+		if(dispatcher!=null) {
+			dispatcher.shutdown();
+			dispatcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		
+		//once finished we compute the confusion matrix
+		ConfusionMatrix cm = Utils.toConfusionMatrix(evaluation.getTotal());
 		System.out.println(cm);
 		System.out.println(cm.getPrecisionForLabels());
 		System.out.println(cm.getRecallForLabels());
 		System.out.println(cm.getMacroFMeasure());
 		System.out.println(cm.getAccuracy());
+		System.out.println("prequential "+evaluation.getWindow());
+		System.out.println("latency "+pbad.getLatencyHistogram());
+		if(pbad.getScoreCache()!=null) {
+			System.out.println("score cache "+pbad.getScoreCache());
+		}
+		if(pbad.getFrequencyFilter()!=null) {
+			System.out.println("frequency filter "+pbad.getFrequencyFilter());
+		}
+		
+		//the recorded scores are evaluated once for every threshold
+		if(recorder!=null) {
+			ThresholdCurve curve = recorder.getCurve();
+			try(PrintStream out = new PrintStream(this.sweep)) {
+				curve.write(out);
+			}
+			System.out.println("roc auc "+curve.getRocAuc()+", average precision "+curve.getAveragePrecision()+
+					", best threshold "+curve.getBestThreshold());
+		}
 	}
 
 
 
 	private Stream<Transazione> getDataset(String fileCSV) throws IOException{
-		List<Transazione> transazioni = new LinkedList<>();
-		File file = new File(fileCSV);
-
-
-		BufferedReader br = new BufferedReader(new FileReader(file));
-		String st;
-		String values[];
-		st = br.readLine();
-		while ((st = br.readLine()) != null){
-			values = st.split(",");
-			transazioni.add(new Transazione(values));
-		}
-		br.close();
-
-		return transazioni.stream();
+		//transactions are parsed lazily, while they are consumed by the detector
+		return Utils.parseTransactions(new File(fileCSV));
 	}
 
 
@@ -202,7 +278,7 @@ public class DemoEPPOF{
 	
 	
 	
-	public static void main(String[] args) throws IOException{
+	public static void main(String[] args) throws IOException, InterruptedException{
 		final DemoEPPOF demo = new DemoEPPOF();
 		final CmdLineParser argsParser = new CmdLineParser(demo);
 		try {
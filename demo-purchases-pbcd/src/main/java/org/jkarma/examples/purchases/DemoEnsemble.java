@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2019 Angelo Impedovo
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.jkarma.examples.purchases;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.heuristics.AreaHeuristic;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.mining.providers.TidSetProvider;
+import org.jkarma.mining.structures.MiningStrategy;
+import org.jkarma.mining.structures.Strategies;
+import org.jkarma.mining.windows.Windows;
+import org.jkarma.pbad.anomalies.CompositeAnomaly;
+import org.jkarma.pbad.anomalies.EPPOFAnomaly;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.anomalies.NegativeFPOFAnomaly;
+import org.jkarma.pbad.detectors.AnomalyDetectedEvent;
+import org.jkarma.pbad.detectors.AnomalyNotDetectedEvent;
+import org.jkarma.pbad.detectors.BoundedDispatcher;
+import org.jkarma.pbad.detectors.PBAD;
+import org.jkarma.pbad.detectors.PBADEventListener;
+import org.jkarma.pbad.metrics.StreamingEvaluation;
+import org.jkarma.pbcd.descriptors.Descriptors;
+import org.jkarma.pbcd.detectors.Detectors;
+import org.jkarma.pbcd.detectors.PBCD;
+import org.jkarma.pbcd.events.ChangeDetectedEvent;
+import org.jkarma.pbcd.events.ChangeNotDetectedEvent;
+import org.jkarma.pbcd.patterns.Patterns;
+import org.jkarma.pbcd.similarities.UnweightedJaccard;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+
+
+public class DemoEnsemble{
+
+	@Option(name="-ms", aliases="--minSupport", usage="Threshold above which a pattern is considered")
+	public float minSup = 0.5f;
+
+	@Option(name="-mc", aliases="--minChange", usage="Threshold above which two blocks are different")
+	public float minChange = 0.8f;
+
+	@Option(name="-bs", aliases="--blockSize", usage="Number of examples into a single block")
+	public int blockSize = 4;
+
+	@Option(name="-ma", aliases="--minAnomaly", usage="Threshold below which an example is anomalous")
+	public float minAnomaly = 0.1f;
+
+	@Option(name="-d", aliases="--depth", usage="Depth of research space of patterns")
+	public int depth = 3;
+
+	@Option(name="-p", aliases="--parallel", usage="Score the transactions of each block in parallel")
+	public boolean parallel = false;
+
+	@Option(name="-a", aliases="--async", usage="Deliver the events on a separate thread, buffering at most the given number of them")
+	public int async = 0;
+
+	@Option(name="-r", aliases="--onArrival", usage="Score each example on arrival, against the patterns of the last completed block")
+	public boolean onArrival = false;
+
+	@Option(name="-rs", aliases="--restore", usage="Checkpoint file the detector is restored from before starting")
+	public File restore = null;
+
+	@Option(name="-ck", aliases="--checkpoint", usage="Checkpoint file the detector is saved to once finished")
+	public File checkpoint = null;
+
+	@Option(name="-f", aliases="--file", usage="Fully qualified path and name of file.", required=true)
+	private static String fileName;
+
+	public void run() throws IOException, InterruptedException {
+		//we load the dataset
+		Stream<Transazione> dataset =  this.getDataset(fileName);
+
+		//we build a change detector based on frequent closed itemsets.
+		PBCD<Transazione,String,TidSet,Boolean> pbcd = this.getPBCD(this.minSup);
+		
+		//events are optionally delivered on a separate thread, without losing any of them
+		BoundedDispatcher dispatcher = null;
+		if(this.async > 0) {
+			dispatcher = new BoundedDispatcher(this.async, BoundedDispatcher.Policy.BLOCK);
+		}
+		
+		//then we build an anomaly detector based on the change detector delegate.
+		//The FPOF score drives the detection, while the other scores are computed in the same pass.
+		CompositeAnomaly<Transazione, String, TidSet> scoring = new CompositeAnomaly<>(
+			new FPOFAnomaly<Transazione, String, TidSet>(this.minSup),
+			new NegativeFPOFAnomaly<Transazione, String, TidSet>(this.minSup),
+			new EPPOFAnomaly<Transazione, String, TidSet>(this.minSup, 1.25)
+		);
+		PBAD<Transazione, String, TidSet> pbad = new PBAD<>(
+			pbcd, scoring, this.minAnomaly, dispatcher
+		);
+		if(this.parallel) {
+			pbad.setExecutor(ForkJoinPool.commonPool());
+		}
+		pbad.setScoreOnArrival(this.onArrival);
+		if(this.restore!=null) {
+			pbad.restore(this.restore);
+		}
+		
+		//we evaluate the predictions while they are made, over the whole stream
+		//and over the latest ten blocks
+		StreamingEvaluation evaluation = new StreamingEvaluation(10 * this.blockSize);
+		
+		//we listen for anomaly detection events
+		pbad.registerListener(new PBADEventListener<Transazione, String, TidSet>(){
+
+			@Override
+			public void anomalyDetected(AnomalyDetectedEvent<Transazione, String> event) {
+				Transazione t = event.getTransaction();
+				if(t.isAnomaly()) {
+					System.err.println("t:"+t.getId()+", scores:"+Arrays.toString(event.getAnomalyScores()));
+				}else {
+					System.out.println("t:"+t.getId()+", scores:"+Arrays.toString(event.getAnomalyScores()));
+				}
+				
+				evaluation.record(true, t.isAnomaly());
+			}
+
+			@Override
+			public void anomalyNotDetected(AnomalyNotDetectedEvent<Transazione, String> event) {
+				Transazione t = event.getTransaction();
+				if(t.isAnomaly()) {
+					System.err.println("t:"+t.getId()+", scores:"+Arrays.toString(event.getAnomalyScores()));
+				}else {
+					System.out.println("t:"+t.getId()+", scores:"+Arrays.toString(event.getAnomalyScores()));
+				}
+				
+				evaluation.record(false, t.isAnomaly());
+			}
+
+			@Override
+			public void changeDetected(ChangeDetectedEvent<String, TidSet> event) {
+				System.out.println("change detected "+event.getAmount());
+			}
+
+			@Override
+			public void changeNotDetected(ChangeNotDetectedEvent<String, TidSet> event) {
+				System.out.println("change detected "+event.getAmount());
+			}
+			
+		});
+		
+		//we consume every data point
+		dataset.forEach(pbad);
+		dataset.close();
+		
+		if(this.checkpoint!=null) {
+			pbad.checkpoint(this.checkpoint);
+		}
+		
+		//we wait for the delivery of the pending events
+		if(dispatcher!=null) {
+			dispatcher.shutdown();
+			dispatcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		
+		//once finished we compute the confusion matrix
+		ConfusionMatrix cm = Utils.toConfusionMatrix(evaluation.getTotal());
+		System.out.println(cm);
+		System.out.println(cm.getPrecisionForLabels());
+		System.out.println(cm.getRecallForLabels());
+		System.out.println(cm.getMacroFMeasure());
+		System.out.println(cm.getAccuracy());
+		System.out.println("prequential "+evaluation.getWindow());
+		System.out.println("latency "+pbad.getLatencyHistogram());
+	}
+
+
+
+	private Stream<Transazione> getDataset(String fileCSV) throws IOException{
+		//transactions are parsed lazily, while they are consumed by the detector
+		return Utils.parseTransactions(new File(fileCSV));
+	}
+
+
+	private PBCD<Transazione, String, TidSet, Boolean> getPBCD(float minSup){
+		//we prepare the time window model and the data accessor
+		TidSetProvider<String> accessor = new TidSetProvider<>(Windows.blockwiseSliding());
+		
+		//we instantiate the mining strategy
+		MiningStrategy<String, TidSet> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(this.depth).eclat(this.minSup)
+			.beam(accessor, new AreaHeuristic<String,TidSet>(), 20);
+
+		//we assemble the PBCD
+		return Detectors.upon(strategy)
+			.unweighted((p,t) -> Patterns.isFrequent(p,minSup,t), new UnweightedJaccard())
+			.describe(Descriptors.partialEps(this.minSup, 1.00))
+			.build(this.minChange, this.blockSize);
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	public static void main(String[] args) throws IOException, InterruptedException{
+		final DemoEnsemble demo = new DemoEnsemble();
+		final CmdLineParser argsParser = new CmdLineParser(demo);
+		try {
+			//we parse the command line arguments
+			argsParser.parseArgument(args);
+
+			//we run the algorithm
+			demo.run();
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			System.err.println("java -jar [jar-file] [options...] arguments...");
+			argsParser.printUsage(System.err);
+			System.err.println();
+			System.err.println(" Example: java -jar jKarma-fraud-detection"+
+					argsParser.printExample(OptionHandlerFilter.ALL)
+					);
+		}
+
+	}
+}
\ No newline at end of file
@@ -0,0 +1,376 @@
+package org.jkarma.examples.purchases;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.heuristics.AreaHeuristic;
+import org.jkarma.mining.joiners.FrequencyEvaluation;
+import org.jkarma.mining.joiners.ProjectedDB;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.mining.providers.NegativeTidSetProvider;
+import org.jkarma.mining.providers.ProjectedDBProvider;
+import org.jkarma.mining.providers.TidSetProvider;
+import org.jkarma.mining.providers.WindowedProvider;
+import org.jkarma.mining.structures.MiningStrategy;
+import org.jkarma.mining.structures.Strategies;
+import org.jkarma.mining.windows.Windows;
+import org.jkarma.pbad.anomalies.CompiledAnomaly;
+import org.jkarma.pbad.anomalies.EPPOFAnomaly;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.anomalies.NegativeFPOFAnomaly;
+import org.jkarma.pbad.anomalies.WCFPOFAnomaly;
+import org.jkarma.pbad.detectors.AnomalyDetectedEvent;
+import org.jkarma.pbad.detectors.AnomalyNotDetectedEvent;
+import org.jkarma.pbad.detectors.BoundedDispatcher;
+import org.jkarma.pbad.detectors.PBAD;
+import org.jkarma.pbad.detectors.PBADEventListener;
+import org.jkarma.pbad.metrics.ConfusionCounts;
+import org.jkarma.pbad.metrics.LatencyHistogram;
+import org.jkarma.pbad.metrics.ScoreRecorder;
+import org.jkarma.pbad.metrics.StreamingEvaluation;
+import org.jkarma.pbad.metrics.ThresholdCurve;
+import org.jkarma.pbcd.descriptors.Descriptors;
+import org.jkarma.pbcd.detectors.Detectors;
+import org.jkarma.pbcd.detectors.PBCD;
+import org.jkarma.pbcd.events.ChangeDetectedEvent;
+import org.jkarma.pbcd.events.ChangeNotDetectedEvent;
+import org.jkarma.pbcd.patterns.Patterns;
+import org.jkarma.pbcd.similarities.UnweightedJaccard;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+
+
+/**
+ * Load driver replaying a dataset into one of the detectors of the demos, either
+ * as fast as possible or at a fixed arrival rate, and reporting the sustained
+ * throughput along with the distribution of the processing times.
+ * The dataset is parsed before the replay starts, and it is replayed as many
+ * times as needed for feeding the requested number of transactions.
+ */
+public class Replay{
+
+	/**
+	 * The detectors of the demos.
+	 */
+	public enum Configuration {
+		FPOF, NEGFPOF, EPPOF, FPOFCLOSED
+	}
+
+	@Option(name="-c", aliases="--configuration", usage="Detector to be replayed, as in the demo of the same name")
+	public Configuration configuration = Configuration.FPOF;
+
+	@Option(name="-ms", aliases="--minSupport", usage="Threshold above which a pattern is considered")
+	public float minSup = 0.5f;
+
+	@Option(name="-mc", aliases="--minChange", usage="Threshold above which two blocks are different")
+	public float minChange = 0.8f;
+
+	@Option(name="-bs", aliases="--blockSize", usage="Number of examples into a single block")
+	public int blockSize = 4;
+
+	@Option(name="-ma", aliases="--minAnomaly", usage="Threshold below which an example is anomalous")
+	public float minAnomaly = 0.1f;
+
+	@Option(name="-d", aliases="--depth", usage="Depth of research space of patterns")
+	public int depth = 3;
+
+	@Option(name="-bw", aliases="--beamWidth", usage="Number of patterns kept by the beam search, 0 for the width of the demo")
+	public int beam = 0;
+
+	@Option(name="-rt", aliases="--rate", usage="Examples fed per second, 0 for feeding them as fast as possible")
+	public double rate = 0;
+
+	@Option(name="-w", aliases="--warmup", usage="Examples fed before measuring")
+	public int warmup = 1000;
+
+	@Option(name="-n", aliases="--count", usage="Examples fed while measuring, 0 for the size of the dataset")
+	public int count = 0;
+
+	@Option(name="-p", aliases="--parallel", usage="Score the transactions of each block in parallel")
+	public boolean parallel = false;
+
+	@Option(name="-a", aliases="--async", usage="Deliver the events on a separate thread, buffering at most the given number of them")
+	public int async = 0;
+
+	@Option(name="-r", aliases="--onArrival", usage="Score each example on arrival, against the patterns of the last completed block")
+	public boolean onArrival = false;
+
+	@Option(name="-b", aliases="--bounded", usage="Only compute the scores as far as needed for detecting the anomalies")
+	public boolean bounded = false;
+
+	@Option(name="-pl", aliases="--pipeline", usage="Score each block on a separate thread while mining the next ones, queueing at most the given number of blocks")
+	public int pipeline = 0;
+
+	@Option(name="-f", aliases="--file", usage="Fully qualified path and name of file.", required=true)
+	private static String fileName;
+
+	private BoundedDispatcher dispatcher;
+	private volatile StreamingEvaluation evaluation;
+	private volatile ScoreRecorder recorder;
+
+	public void run() throws IOException, InterruptedException {
+		//we parse the dataset in advance
+		List<Transazione> dataset;
+		try(Stream<Transazione> stream = Utils.parseTransactions(new File(fileName))) {
+			dataset = stream.collect(Collectors.toList());
+		}
+		int measured = (this.count > 0) ? this.count : dataset.size();
+
+		//we build the detector
+		if(this.async > 0) {
+			this.dispatcher = new BoundedDispatcher(this.async, BoundedDispatcher.Policy.BLOCK);
+		}
+		PBAD<Transazione, String, ?> pbad = this.getPBAD();
+		this.evaluation = new StreamingEvaluation(10 * this.blockSize);
+
+		//the examples are fed in order, looping over the dataset
+		this.feed(pbad, dataset, 0, this.warmup);
+		pbad.flush();
+		if(this.dispatcher!=null) {
+			//the events of the warmup are delivered before the measures are reset
+			CountDownLatch delivered = new CountDownLatch(1);
+			this.dispatcher.execute(delivered::countDown);
+			delivered.await();
+		}
+		pbad.getLatencyHistogram().reset();
+		this.evaluation = new StreamingEvaluation(10 * this.blockSize);
+
+		LatencyHistogram blocks = new LatencyHistogram();
+		LatencyHistogram examples = new LatencyHistogram();
+		long start = System.nanoTime();
+		long behind = this.feed(pbad, dataset, this.warmup, measured, blocks, examples);
+		pbad.flush();
+		if(this.dispatcher!=null) {
+			this.dispatcher.shutdown();
+			this.dispatcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		//we report the measures
+		double throughput = measured / (elapsed / 1e9);
+		System.out.println("configuration "+this.configuration+", blockSize "+this.blockSize+
+				", depth "+this.depth+", beam "+this.getBeam()+
+				", rate "+((this.rate > 0) ? this.rate+" tx/sec" : "unbounded"));
+		System.out.println(String.format("throughput %d examples in %.3fs, %.1f tx/sec",
+				measured, elapsed / 1e9, throughput));
+		if(this.rate > 0) {
+			System.out.println(String.format("sustained %s, at most %.3fms behind schedule",
+					(throughput >= 0.99 * this.rate) ? "yes" : "no", behind / 1e6));
+		}
+		System.out.println("blocks "+blocks);
+		System.out.println("examples "+examples);
+		System.out.println("latency "+pbad.getLatencyHistogram());
+		System.out.println("evaluation "+this.evaluation.getTotal());
+	}
+
+
+	/**
+	 * Feeds the whole dataset once to a new detector, delivering its events synchronously.
+	 * @param dataset The parsed dataset, which is only read.
+	 * @return the evaluation of the predictions of the detector.
+	 * @throws InterruptedException if interrupted while waiting for the scoring stage.
+	 */
+	ConfusionCounts evaluate(List<Transazione> dataset) throws InterruptedException {
+		this.evaluation = new StreamingEvaluation(10 * this.blockSize);
+		PBAD<Transazione, String, ?> pbad = this.getPBAD();
+		for(Transazione t : dataset) {
+			pbad.accept(t);
+		}
+		pbad.flush();
+		return this.evaluation.getTotal();
+	}
+
+
+	/**
+	 * Feeds the whole dataset once to a new detector, recording the exact score of every example.
+	 * @param dataset The parsed dataset, which is only read.
+	 * @return the outcomes of the detector for every anomaly threshold.
+	 * @throws InterruptedException if interrupted while waiting for the scoring stage.
+	 */
+	ThresholdCurve sweep(List<Transazione> dataset) throws InterruptedException {
+		this.recorder = new ScoreRecorder();
+		this.bounded = false;
+		this.evaluate(dataset);
+		return this.recorder.getCurve();
+	}
+
+
+	private void feed(PBAD<Transazione, String, ?> pbad, List<Transazione> dataset, int from, int n) {
+		this.feed(pbad, dataset, from, n, new LatencyHistogram(), new LatencyHistogram());
+	}
+
+
+	/**
+	 * Feeds the detector, timing each example.
+	 * @return the maximum delay of an example with respect to its scheduled arrival, in nanoseconds.
+	 */
+	private long feed(PBAD<Transazione, String, ?> pbad, List<Transazione> dataset, int from, int n,
+			LatencyHistogram blocks, LatencyHistogram examples) {
+		long interval = (this.rate > 0) ? (long)(1e9 / this.rate) : 0;
+		long start = System.nanoTime();
+		long behind = 0;
+		for(int i=0; i<n; i++) {
+			if(interval > 0) {
+				//we wait for the scheduled arrival of the example
+				long scheduled = start + i * interval;
+				long now = System.nanoTime();
+				if(scheduled > now) {
+					LockSupport.parkNanos(scheduled - now);
+				}else {
+					behind = Math.max(behind, now - scheduled);
+				}
+			}
+
+			long begin = System.nanoTime();
+			pbad.accept(dataset.get((from + i) % dataset.size()));
+			long time = System.nanoTime() - begin;
+
+			//the last example of a block also pays for mining and scoring the block
+			if((from + i + 1) % this.blockSize == 0) {
+				blocks.record(time);
+			}else {
+				examples.record(time);
+			}
+		}
+		return behind;
+	}
+
+
+	private PBAD<Transazione, String, ?> getPBAD() throws InterruptedException {
+		switch(this.configuration) {
+		case NEGFPOF:
+			return this.getPBAD(
+				this.getPBCD(new NegativeTidSetProvider<>(Windows.blockwiseSliding())),
+				new NegativeFPOFAnomaly<>(this.minSup)
+			);
+		case EPPOF:
+			return this.getPBAD(
+				this.getPBCD(new TidSetProvider<>(Windows.blockwiseSliding())),
+				new EPPOFAnomaly<>(this.minSup, 1.25)
+			);
+		case FPOFCLOSED:
+			return this.getPBAD(this.getClosedPBCD(), new WCFPOFAnomaly<Transazione, String, ProjectedDB<String>>());
+		default:
+			return this.getPBAD(
+				this.getPBCD(new TidSetProvider<>(Windows.blockwiseSliding())),
+				new FPOFAnomaly<>(this.minSup)
+			);
+		}
+	}
+
+
+	private <C> PBAD<Transazione, String, C> getPBAD(PBCD<Transazione, String, C, Boolean> pbcd,
+			CompiledAnomaly<Transazione, String, C> scoring) throws InterruptedException {
+		PBAD<Transazione, String, C> pbad = new PBAD<>(pbcd, scoring, this.minAnomaly, this.dispatcher);
+		if(this.parallel) {
+			pbad.setExecutor(ForkJoinPool.commonPool());
+		}
+		pbad.setScoreOnArrival(this.onArrival);
+		pbad.setExactScores(!this.bounded);
+		pbad.setPipeline(this.pipeline);
+		//negative TidSets record the transactions containing none of the items of a pattern
+		pbad.setWindowMembership(this.configuration!=Configuration.NEGFPOF);
+
+		//we only evaluate the predictions
+		pbad.registerListener(new PBADEventListener<Transazione, String, C>(){
+
+			@Override
+			public void anomalyDetected(AnomalyDetectedEvent<Transazione, String> event) {
+				evaluation.record(true, event.getTransaction().isAnomaly());
+				if(recorder!=null) {
+					recorder.record(event.getAnomalyScore(), event.getTransaction().isAnomaly());
+				}
+			}
+
+			@Override
+			public void anomalyNotDetected(AnomalyNotDetectedEvent<Transazione, String> event) {
+				evaluation.record(false, event.getTransaction().isAnomaly());
+				if(recorder!=null) {
+					recorder.record(event.getAnomalyScore(), event.getTransaction().isAnomaly());
+				}
+			}
+
+			@Override
+			public void changeDetected(ChangeDetectedEvent<String, C> event) {
+			}
+
+			@Override
+			public void changeNotDetected(ChangeNotDetectedEvent<String, C> event) {
+			}
+
+		});
+		return pbad;
+	}
+
+
+	private PBCD<Transazione, String, TidSet, Boolean> getPBCD(WindowedProvider<String, TidSet> accessor){
+		//we instantiate the mining strategy, as in the demos
+		MiningStrategy<String, TidSet> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(this.depth).eclat(this.minSup)
+			.beam(accessor, new AreaHeuristic<String,TidSet>(), this.getBeam());
+		return this.getPBCD(strategy);
+	}
+
+
+	private PBCD<Transazione, String, ProjectedDB<String>, Boolean> getClosedPBCD(){
+		//we instantiate the mining strategy, as in DemoFPOFClosed
+		ProjectedDBProvider<String> accessor = new ProjectedDBProvider<>(Windows.blockwiseSliding());
+		MiningStrategy<String, ProjectedDB<String>> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(this.depth).lcm(this.minSup)
+			.beam(accessor, new AreaHeuristic<String,ProjectedDB<String>>(), this.getBeam());
+		return this.getPBCD(strategy);
+	}
+
+
+	private <C extends FrequencyEvaluation> PBCD<Transazione, String, C, Boolean> getPBCD(MiningStrategy<String, C> strategy){
+		//we assemble the PBCD
+		return Detectors.upon(strategy)
+			.unweighted((p,t) -> Patterns.isFrequent(p,minSup,t), new UnweightedJaccard())
+			.describe(Descriptors.partialEps(this.minSup, 1.00))
+			.build(this.minChange, this.blockSize);
+	}
+
+
+	private int getBeam() {
+		if(this.beam > 0) {
+			return this.beam;
+		}
+		return (this.configuration==Configuration.NEGFPOF) ? 5 : 20;
+	}
+
+
+
+	public static void main(String[] args) throws IOException, InterruptedException{
+		final Replay replay = new Replay();
+		final CmdLineParser argsParser = new CmdLineParser(replay);
+		try {
+			//we parse the command line arguments
+			argsParser.parseArgument(args);
+
+			//we run the replay
+			replay.run();
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			System.err.println("java -cp [jar-file] "+Replay.class.getName()+" [options...] arguments...");
+			argsParser.printUsage(System.err);
+			System.err.println();
+			System.err.println(" Example: java -cp [jar-file] "+Replay.class.getName()+
+					argsParser.printExample(OptionHandlerFilter.ALL)
+					);
+		}
+
+	}
+}
@@ -0,0 +1,186 @@
+package org.jkarma.examples.purchases;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jkarma.examples.purchases.Replay.Configuration;
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.pbad.metrics.ConfusionCounts;
+import org.jkarma.pbad.metrics.ThresholdCurve;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+
+
+/**
+ * Hyper-parameter sweep running one of the detectors of the demos over a grid of
+ * parameters. The dataset is parsed once and shared, read-only, by all the points
+ * of the grid, which are run concurrently on a pool of threads, each one on its own
+ * detector. The accuracy and the runtime of every point are reported as a table.
+ * Since the minimum anomaly threshold does not affect mining, the points only differing
+ * by it share a single run, whose exact scores are evaluated for every threshold.
+ */
+public class Sweep{
+
+	@Option(name="-c", aliases="--configuration", usage="Detector to be tuned, as in the demo of the same name")
+	public Configuration configuration = Configuration.FPOF;
+
+	@Option(name="-ms", aliases="--minSupport", usage="Comma-separated thresholds above which a pattern is considered")
+	public String minSup = "0.5";
+
+	@Option(name="-mc", aliases="--minChange", usage="Comma-separated thresholds above which two blocks are different")
+	public String minChange = "0.8";
+
+	@Option(name="-bs", aliases="--blockSize", usage="Comma-separated numbers of examples into a single block")
+	public String blockSize = "4";
+
+	@Option(name="-ma", aliases="--minAnomaly", usage="Comma-separated thresholds below which an example is anomalous")
+	public String minAnomaly = "0.1";
+
+	@Option(name="-d", aliases="--depth", usage="Comma-separated depths of research space of patterns")
+	public String depth = "3";
+
+	@Option(name="-bw", aliases="--beamWidth", usage="Number of patterns kept by the beam search, 0 for the width of the demo")
+	public int beam = 0;
+
+	@Option(name="-t", aliases="--threads", usage="Number of points of the grid run concurrently, 0 for the number of cores")
+	public int threads = 0;
+
+	@Option(name="-o", aliases="--output", usage="File the table is also written to, as comma-separated values")
+	public File output = null;
+
+	@Option(name="-f", aliases="--file", usage="Fully qualified path and name of file.", required=true)
+	private static String fileName;
+
+	public void run() throws IOException, InterruptedException, ExecutionException {
+		//we parse the dataset once, for all the points of the grid
+		List<Transazione> dataset;
+		try(Stream<Transazione> stream = Utils.parseTransactions(new File(fileName))) {
+			dataset = Collections.unmodifiableList(stream.collect(Collectors.toList()));
+		}
+
+		//we build the grid
+		List<Replay> grid = new ArrayList<>();
+		for(float d : parse(this.depth)) {
+			for(float bs : parse(this.blockSize)) {
+				for(float ms : parse(this.minSup)) {
+					for(float mc : parse(this.minChange)) {
+						Replay point = new Replay();
+						point.configuration = this.configuration;
+						point.depth = (int)d;
+						point.blockSize = (int)bs;
+						point.minSup = ms;
+						point.minChange = mc;
+						point.beam = this.beam;
+						grid.add(point);
+					}
+				}
+			}
+		}
+
+		//we run the points of the grid concurrently
+		int workers = (this.threads > 0) ? this.threads : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		float[] thresholds = parse(this.minAnomaly);
+		List<Future<List<String>>> runs = new ArrayList<>();
+		long start = System.nanoTime();
+		for(Replay point : grid) {
+			runs.add(executor.submit(() -> {
+				long cpu = threadBean.getCurrentThreadCpuTime();
+				long begin = System.nanoTime();
+				ThresholdCurve curve = point.sweep(dataset);
+				long wall = System.nanoTime() - begin;
+				cpu = threadBean.getCurrentThreadCpuTime() - cpu;
+
+				//each threshold is a row of the table, with the runtime of the shared run
+				List<String> rows = new ArrayList<>();
+				for(float ma : thresholds) {
+					ConfusionCounts counts = curve.getCounts(ma);
+					rows.add(String.format(Locale.ROOT, "%s,%.4f,%.4f,%d,%.4f,%d,%d,%d,%d,%d,%.4f,%.4f,%.4f,%.4f,%.1f,%.1f",
+						point.configuration, point.minSup, point.minChange, point.blockSize,
+						ma, point.depth, counts.getTruePositives(), counts.getFalsePositives(),
+						counts.getFalseNegatives(), counts.getTrueNegatives(), counts.getPrecision(), counts.getRecall(),
+						counts.getF1(), counts.getAccuracy(), wall / 1e6, cpu / 1e6));
+				}
+				return rows;
+			}));
+		}
+		executor.shutdown();
+		List<String> lines = new ArrayList<>();
+		for(Future<List<String>> run : runs) {
+			lines.addAll(run.get());
+		}
+		long elapsed = System.nanoTime() - start;
+
+		//we report the table once all the points are run, in the order of the grid
+		String header = "configuration,minSup,minChange,blockSize,minAnomaly,depth,"+
+				"tp,fp,fn,tn,precision,recall,f1,accuracy,wallMs,cpuMs";
+		PrintStream file = (this.output!=null) ? new PrintStream(this.output) : null;
+		try {
+			System.out.println(String.join("\t", header.split(",")));
+			if(file!=null) {
+				file.println(header);
+			}
+			for(String line : lines) {
+				System.out.println(String.join("\t", line.split(",")));
+				if(file!=null) {
+					file.println(line);
+				}
+			}
+		} finally {
+			if(file!=null) {
+				file.close();
+			}
+		}
+		System.out.println(String.format(Locale.ROOT, "%d configurations in %d runs of %d examples in %.3fs on %d threads",
+				lines.size(), grid.size(), dataset.size(), elapsed / 1e9, workers));
+	}
+
+
+	private static float[] parse(String values) {
+		String[] tokens = values.split(",");
+		float[] parsed = new float[tokens.length];
+		for(int i=0; i<tokens.length; i++) {
+			parsed[i] = Float.parseFloat(tokens[i].trim());
+		}
+		return parsed;
+	}
+
+
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException{
+		final Sweep sweep = new Sweep();
+		final CmdLineParser argsParser = new CmdLineParser(sweep);
+		try {
+			//we parse the command line arguments
+			argsParser.parseArgument(args);
+
+			//we run the sweep
+			sweep.run();
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			System.err.println("java -cp [jar-file] "+Sweep.class.getName()+" [options...] arguments...");
+			argsParser.printUsage(System.err);
+			System.err.println();
+			System.err.println(" Example: java -cp [jar-file] "+Sweep.class.getName()+
+					argsParser.printExample(OptionHandlerFilter.ALL)
+					);
+		}
+
+	}
+}
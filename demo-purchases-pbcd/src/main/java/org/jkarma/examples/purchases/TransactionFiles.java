@@ -0,0 +1,287 @@
+package org.jkarma.examples.purchases;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.pbad.model.ItemDictionary;
+
+/**
+ * Binary files of transactions, converted once from a CSV and replayed many times.
+ * Every distinct value of the CSV is stored once in a table of strings, while each
+ * row is stored as a fixed-width record of ids into the table:
+ * <pre>
+ * header:  int magic, int version, int width, int count, long tableOffset
+ * records: count times (int tid, int card, int[width] items, int label)
+ * table:   int size, size times a modified UTF-8 string
+ * </pre>
+ * where width is the number of products of each transaction. Reading a file maps
+ * its records in memory, and builds each transaction from the strings of the table,
+ * without parsing any text.
+ */
+public class TransactionFiles
+{
+	private static final int MAGIC = 0x6A4B5458;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	/**
+	 * The maximum number of bytes mapped at once.
+	 */
+	private static final long SEGMENT_SIZE = Integer.MAX_VALUE;
+
+
+	/**
+	 * Converts a CSV of transactions into a binary file.
+	 * @param csv The CSV of transactions, with a header.
+	 * @param binary The binary file to be written.
+	 * @throws IOException if the files cannot be accessed, or if the rows have different lengths.
+	 */
+	public static void convert(File csv, File binary) throws IOException {
+		if(csv==null || binary==null) {
+			throw new IllegalArgumentException();
+		}
+
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> table = new ArrayList<>();
+		int width = -1;
+		int count = 0;
+		long tableOffset;
+
+		try(Stream<String[]> rows = Utils.parseRows(new FileInputStream(csv));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(binary)))) {
+			//the header is completed once all the records are written
+			out.write(new byte[HEADER_SIZE]);
+
+			Iterator<String[]> it = rows.iterator();
+			while(it.hasNext()) {
+				String[] values = it.next();
+				if(width < 0) {
+					width = values.length - 3;
+				}else if(values.length - 3 != width) {
+					throw new IOException("Row "+(count+1)+" has "+values.length+" values instead of "+(width+3));
+				}
+
+				out.writeInt(Integer.parseInt(values[0]));
+				for(int i=1; i<values.length; i++) {
+					out.writeInt(ids.computeIfAbsent(values[i], value -> {
+						table.add(value);
+						return table.size()-1;
+					}));
+				}
+				count++;
+			}
+
+			tableOffset = HEADER_SIZE + (long)count * recordSize(Math.max(width, 0));
+			out.writeInt(table.size());
+			for(String value : table) {
+				out.writeUTF(value);
+			}
+		}
+
+		try(RandomAccessFile file = new RandomAccessFile(binary, "rw")) {
+			file.writeInt(MAGIC);
+			file.writeInt(VERSION);
+			file.writeInt(Math.max(width, 0));
+			file.writeInt(count);
+			file.writeLong(tableOffset);
+		}
+	}
+
+
+	/**
+	 * Tells whether a file is a binary file of transactions.
+	 * @param file The file.
+	 * @return true if the file starts with the header of a binary file.
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		if(file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try(DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		}
+	}
+
+
+	/**
+	 * Lazily reads the transactions of a binary file, in the order they were written.
+	 * Each distinct product is decoded and encoded by the dictionary only once, hence
+	 * the products of the transactions are shared strings, and their bitsets are built
+	 * directly from the ids of the records. Closing the stream closes the file.
+	 * @param binary The binary file.
+	 * @param dictionary The dictionary encoding the items of the transactions.
+	 * @return a sequential stream of transactions.
+	 * @throws IOException if the file cannot be read or is not a binary file of transactions.
+	 */
+	public static Stream<Transazione> read(File binary, ItemDictionary<String> dictionary) throws IOException {
+		if(binary==null || dictionary==null) {
+			throw new IllegalArgumentException();
+		}
+		FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.READ);
+		try {
+			Records records = new Records(channel, dictionary);
+			return StreamSupport.stream(
+					Spliterators.spliterator(records, records.count,
+							Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE),
+					false
+			).onClose(() -> {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Converts a CSV of transactions into a binary file.
+	 * @param args The CSV and the binary file.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("java "+TransactionFiles.class.getName()+" [csv-file] [binary-file]");
+			return;
+		}
+		convert(new File(args[0]), new File(args[1]));
+	}
+
+
+	private static int recordSize(int width) {
+		return 4 * (width + 3);
+	}
+
+
+
+	/**
+	 * Iterator over the memory-mapped records of a file.
+	 */
+	private static class Records implements Iterator<Transazione>
+	{
+		private final FileChannel channel;
+		private final ItemDictionary<String> dictionary;
+		private final int width;
+		private final int recordSize;
+		private final int count;
+		private final String[] table;
+
+		/**
+		 * The id assigned by the dictionary to each string of the table, or -1
+		 * if the string was not encoded yet.
+		 */
+		private final int[] itemIds;
+
+		private final int[] recordIds;
+		private final int recordsPerSegment;
+		private ByteBuffer segment;
+		private int next;
+
+		private Records(FileChannel channel, ItemDictionary<String> dictionary) throws IOException {
+			this.channel = channel;
+			this.dictionary = dictionary;
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if(header.getInt() != MAGIC) {
+				throw new IOException("Not a binary file of transactions");
+			}
+			if(header.getInt() != VERSION) {
+				throw new IOException("Unsupported version of binary file of transactions");
+			}
+			this.width = header.getInt();
+			this.count = header.getInt();
+			long tableOffset = header.getLong();
+
+			//the table is decoded once
+			channel.position(tableOffset);
+			InputStream tableStream = Channels.newInputStream(channel);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(tableStream));
+			this.table = new String[in.readInt()];
+			for(int i=0; i<this.table.length; i++) {
+				this.table[i] = in.readUTF();
+			}
+			this.itemIds = new int[this.table.length];
+			Arrays.fill(this.itemIds, -1);
+
+			this.recordSize = recordSize(this.width);
+			this.recordIds = new int[this.width];
+			this.recordsPerSegment = (int)(SEGMENT_SIZE / this.recordSize);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next < this.count;
+		}
+
+		@Override
+		public Transazione next() {
+			if(!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			//records are mapped one segment at a time, so that files may exceed 2GB
+			int offset = this.next % this.recordsPerSegment;
+			if(offset == 0) {
+				long start = HEADER_SIZE + (long)this.next * this.recordSize;
+				long length = (long)Math.min(this.recordsPerSegment, this.count - this.next) * this.recordSize;
+				try {
+					this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			this.next++;
+
+			int position = offset * this.recordSize;
+			int tid = this.segment.getInt(position);
+			String card = this.table[this.segment.getInt(position + 4)];
+			String[] items = new String[this.width];
+			int maxId = -1;
+			for(int i=0; i<this.width; i++) {
+				int value = this.segment.getInt(position + 8 + 4*i);
+				if(this.itemIds[value] < 0) {
+					this.itemIds[value] = this.dictionary.encode(this.table[value]);
+				}
+				items[i] = this.table[value];
+				this.recordIds[i] = this.itemIds[value];
+				maxId = Math.max(maxId, this.recordIds[i]);
+			}
+			String label = this.table[this.segment.getInt(position + 8 + 4*this.width)];
+
+			long[] bits = new long[(maxId < 0) ? 0 : (maxId >>> 6) + 1];
+			for(int i=0; i<this.width; i++) {
+				bits[this.recordIds[i] >>> 6] |= 1L << this.recordIds[i];
+			}
+			return new Transazione(tid, card, Arrays.asList(items), label, bits, this.dictionary);
+		}
+	}
+}
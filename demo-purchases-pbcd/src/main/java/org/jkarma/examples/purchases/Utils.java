@@ -3,13 +3,22 @@ package org.jkarma.examples.purchases;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.pbad.metrics.ConfusionCounts;
+import org.jkarma.pbad.model.ItemDictionary;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+
 import com.univocity.parsers.common.IterableResult;
 import com.univocity.parsers.common.ParsingContext;
+import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import com.univocity.parsers.csv.CsvRoutines;
 
@@ -44,4 +53,94 @@ public class Utils
         return StreamSupport.stream(first.spliterator(), false);
     }
 
+
+    /**
+     * Lazily reads the transactions of a file, either a CSV or a binary file
+     * written by {@link TransactionFiles#convert(File, File)}.
+     * @param source The file of the transactions.
+     * @return a sequential stream of transactions, in the order of the file.
+     */
+    public static Stream<Transazione> parseTransactions(File source) throws IOException{
+        if(source==null) {
+            throw new IllegalArgumentException();
+        }
+        if(TransactionFiles.isBinary(source)) {
+            return TransactionFiles.read(source, Transazione.DICTIONARY);
+        }
+        return parseTransactions(new FileInputStream(source), Transazione.DICTIONARY);
+    }
+
+
+    /**
+     * Lazily parses a CSV of transactions, skipping its header. Rows are parsed
+     * and converted only when the returned stream is consumed, so that the memory
+     * needed does not depend on the size of the input. Quoted fields are unquoted
+     * and may contain the delimiter. Closing the stream closes the input.
+     * @param source The input stream of the CSV.
+     * @param dictionary The dictionary encoding the items of the transactions.
+     * @return a sequential stream of transactions, in the order of the rows.
+     */
+    public static Stream<Transazione> parseTransactions(InputStream source, ItemDictionary<String> dictionary){
+        if(source==null || dictionary==null) {
+            throw new IllegalArgumentException();
+        }
+        return parseRows(source).map(values -> new Transazione(values, dictionary));
+    }
+
+
+    /**
+     * Lazily parses the rows of a CSV, skipping its header. Quoted fields are
+     * unquoted and may contain the delimiter. Closing the stream closes the input.
+     * @param source The input stream of the CSV.
+     * @return a sequential stream of the values of each row.
+     */
+    public static Stream<String[]> parseRows(InputStream source){
+        if(source==null) {
+            throw new IllegalArgumentException();
+        }
+
+        //we open a valid InputStreamReader
+        InputStreamReader reader = new InputStreamReader(source, StandardCharsets.UTF_8);
+
+        //we set the csv parsing settings
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.setLineSeparatorDetectionEnabled(true);
+        settings.setHeaderExtractionEnabled(true);
+        settings.setReadInputOnSeparateThread(false);
+        settings.setNullValue("");
+        settings.setEmptyValue("");
+        settings.setMaxCharsPerColumn(-1);
+
+        //we iterate over the rows, one at a time
+        CsvParser parser = new CsvParser(settings);
+        IterableResult<String[], ParsingContext> rows = parser.iterate(reader);
+
+        return StreamSupport.stream(rows.spliterator(), false)
+                .onClose(parser::stopParsing);
+    }
+
+
+    /**
+     * Builds the confusion matrix of the FRAUD and NON-FRAUD labels from the
+     * counts of a streaming evaluation, where frauds are the anomalies.
+     * @param counts The confusion counts.
+     * @return the confusion matrix, with gold labels as rows.
+     */
+    public static ConfusionMatrix toConfusionMatrix(ConfusionCounts counts){
+        ConfusionMatrix cm = new ConfusionMatrix();
+        increaseValue(cm, "NON-FRAUD", "NON-FRAUD", counts.getTrueNegatives());
+        increaseValue(cm, "NON-FRAUD", "FRAUD", counts.getFalsePositives());
+        increaseValue(cm, "FRAUD", "NON-FRAUD", counts.getFalseNegatives());
+        increaseValue(cm, "FRAUD", "FRAUD", counts.getTruePositives());
+        return cm;
+    }
+
+
+    private static void increaseValue(ConfusionMatrix cm, String gold, String predicted, long count){
+        //labels are only added once they occur
+        if(count > 0) {
+            cm.increaseValue(gold, predicted, Math.toIntExact(count));
+        }
+    }
+
 }
@@ -15,13 +15,17 @@
  ******************************************************************************/
 package org.jkarma.examples.purchases.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-import org.jkarma.model.Transaction;
+import org.jkarma.pbad.model.EncodedTransaction;
+import org.jkarma.pbad.model.ItemDictionary;
 
 
 /**
@@ -30,19 +34,38 @@ import org.jkarma.model.Transaction;
  * it is uniquely identified by a transaction id (tid), it is
  * registered at a given timestamp and contains a set of products
  * purchased together.
+ * The products are also encoded as a bitset of ids by an item dictionary,
+ * so that pattern containment can be tested word-wise.
+ * Serialized purchases are encoded again by the shared dictionary when deserialized.
  * @author Angelo Impedovo
  */
-public class Transazione implements Transaction<String>
+public class Transazione implements EncodedTransaction<String>, Serializable
 {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The dictionary shared by the transactions built without an explicit one.
+	 */
+	public static final ItemDictionary<String> DICTIONARY = new ItemDictionary<>();
+
 	private List<String> valori;
+	private transient long[] bits;
+	private transient ItemDictionary<String> dictionary;
 	private Instant timestamp;
 	private Integer ID;
+	private String cardId;
 	private String label;
 
 	public Transazione(String[] trans)
+	{
+		this(trans, DICTIONARY);
+	}
+
+	public Transazione(String[] trans, ItemDictionary<String> dictionary)
 	{
 		timestamp = Instant.now();
 		ID = Integer.parseInt(trans[0]);
+		cardId = trans[1];
 		valori = new ArrayList<>();
 		int i = 2;		//salto il transactionID e il cardID
 		while(i < trans.length-1)		//salto anche l'ultimo attributo, ovvero quello di classe (TRUE - FALSE)
@@ -51,6 +74,23 @@ public class Transazione implements Transaction<String>
 			i++;
 		}
 		label = trans[i];	//qui metto TRUE o FALSE, in modo che jKarma non lo consideri nella creazione dei patten
+		this.dictionary = dictionary;
+		bits = dictionary.encode(valori);
+	}
+
+	/**
+	 * Builds a purchase whose fields are already decoded, along with the bitset
+	 * of its products encoded by the given dictionary.
+	 */
+	public Transazione(int id, String cardId, List<String> items, String label, long[] bits, ItemDictionary<String> dictionary)
+	{
+		timestamp = Instant.now();
+		ID = id;
+		this.cardId = cardId;
+		valori = items;
+		this.label = label;
+		this.bits = bits;
+		this.dictionary = dictionary;
 	}
 
 	public int getId()
@@ -58,11 +98,26 @@ public class Transazione implements Transaction<String>
 		return ID;
 	}
 
+	public String getCardId()
+	{
+		return cardId;
+	}
+
 	public Collection<String> getItems()
 	{
 		return valori;
 	}
 
+	public ItemDictionary<String> getDictionary()
+	{
+		return dictionary;
+	}
+
+	public long[] getItemBits()
+	{
+		return bits;
+	}
+
 	public Instant getTimestamp()
 	{
 		return timestamp;
@@ -83,6 +138,13 @@ public class Transazione implements Transaction<String>
 		return ID.toString();
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		dictionary = DICTIONARY;
+		bits = dictionary.encode(valori);
+	}
+
 	public boolean isAnomaly() {
 		return this.label.equalsIgnoreCase("true");
 	}
@@ -0,0 +1,28 @@
+package org.jkarma.pbad.anomalies;
+
+import org.jkarma.mining.interfaces.Lattice;
+import org.jkarma.model.Transaction;
+import org.jkarma.pbcd.patterns.Pattern;
+
+/**
+ * An anomaly score computed in two phases: once per block, the scorer is prepared
+ * against the lattice of patterns of the block, and then every transaction is scored
+ * by the prepared {@link BlockScorer}. The per-block phase is where the lattice is
+ * walked, while the per-transaction phase only returns primitive scores.
+ * Since the lattice of a PBCD is only valid while the PBCD notifies its completion,
+ * block scorers must not retain it, and may thus outlive their block.
+ * @param <A> the type of transactions.
+ * @param <B> the type of items.
+ * @param <C> the type of evaluations of the patterns.
+ */
+@FunctionalInterface
+public interface AnomalyScorer<A extends Transaction<B>, B extends Comparable<B>, C> {
+
+	/**
+	 * Prepares the scoring of the transactions of a block.
+	 * @param lattice The lattice of patterns of the block.
+	 * @return the scorer of the transactions of the block.
+	 */
+	public BlockScorer<? super A> prepare(Lattice<Pattern<B,C>> lattice);
+
+}
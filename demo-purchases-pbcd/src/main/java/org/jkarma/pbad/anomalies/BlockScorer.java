@@ -0,0 +1,21 @@
+package org.jkarma.pbad.anomalies;
+
+/**
+ * The anomaly score of the transactions of a block, prepared by an {@link AnomalyScorer}
+ * once the lattice of the block is known. Scores are primitive values, so that scoring
+ * a transaction does not need to allocate any object.
+ * Block scorers are invoked by several threads at once when blocks are scored in parallel,
+ * hence they must not be modified once prepared.
+ * @param <A> the type of transactions.
+ */
+@FunctionalInterface
+public interface BlockScorer<A> {
+
+	/**
+	 * Computes the anomaly score of a transaction.
+	 * @param t The transaction to be scored.
+	 * @return the anomaly score of the transaction.
+	 */
+	public double score(A t);
+
+}
@@ -0,0 +1,131 @@
+package org.jkarma.pbad.anomalies;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jkarma.mining.interfaces.ItemSet;
+import org.jkarma.mining.interfaces.Lattice;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.mining.structures.Pair;
+import org.jkarma.model.Transaction;
+import org.jkarma.pbcd.patterns.Pattern;
+
+/**
+ * Base class of the anomaly scores that can be compiled into a {@link ScoringModel}.
+ * Subclasses only decide which patterns qualify and how much they weigh, while
+ * the lattice walk is performed once by {@link #compile(Lattice)}.
+ */
+public abstract class CompiledAnomaly<A extends Transaction<B>, B extends Comparable<B>, C>
+implements AnomalyScorer<A,B,C>{
+
+	/**
+	 * Compiles the lattice into an immutable scoring model.
+	 * @param u The lattice of patterns.
+	 * @return the scoring model of the lattice.
+	 */
+	public ScoringModel<B> compile(Lattice<Pattern<B, C>> u) {
+		return this.compile(u, false);
+	}
+
+	/**
+	 * Compiles the lattice into an immutable scoring model, which optionally
+	 * tells whether the transactions of the recent window support a pattern
+	 * by looking their id up in the TidSets of its items.
+	 * This is only sound when the PBCD runs on a TidSetProvider, whose TidSets
+	 * record the transactions containing each item, and it is skipped when the
+	 * evaluations of the patterns are not TidSets.
+	 * The TidSets of longer patterns are not used, since the lattice may retain
+	 * patterns whose evaluations were not updated with the recent window.
+	 * @param u The lattice of patterns.
+	 * @param membership Whether the model looks the transactions of the recent window up.
+	 * @return the scoring model of the lattice.
+	 */
+	public ScoringModel<B> compile(Lattice<Pattern<B, C>> u, boolean membership) {
+		List<Object[]> patterns = new ArrayList<>();
+		List<Double> weights = new ArrayList<>();
+		Map<B, Collection<Integer>> tidSets = membership ? new HashMap<>() : null;
+		double den = 0;
+
+		//we iterate on the collection of frequent patterns
+		for(Pattern<B,C> p : u) {
+			if(p.getItemSet().getSuffix()!=null && this.qualifies(p)) {
+				patterns.add(getItems(p));
+				weights.add(this.getWeight(p));
+				den+=this.getDenominatorWeight(p);
+			}
+			if(tidSets!=null && p.getItemSet().getLength()==1) {
+				if(p.getSecondEval() instanceof TidSet) {
+					tidSets.put(p.getItemSet().getSuffix(), (TidSet)p.getSecondEval());
+				}else {
+					tidSets = null;
+				}
+			}
+		}
+
+		double[] w = new double[weights.size()];
+		for(int i=0; i<w.length; i++) {
+			w[i] = weights.get(i);
+		}
+		return new ScoringModel<B>(
+			new PatternIndex<B>(patterns), w, den, this.isNegated(), this.isLengthNormalized(),
+			(tidSets!=null) ? WindowMembership.of(patterns, tidSets) : null
+		);
+	}
+
+	@Override
+	public BlockScorer<? super A> prepare(Lattice<Pattern<B, C>> u) {
+		return this.compile(u);
+	}
+
+	/**
+	 * Tells whether a pattern contributes to the score.
+	 */
+	protected abstract boolean qualifies(Pattern<B,C> p);
+
+	/**
+	 * The weight added to the numerator when the pattern matches a transaction.
+	 */
+	protected abstract double getWeight(Pattern<B,C> p);
+
+	/**
+	 * The weight added to the denominator by a qualifying pattern.
+	 */
+	protected double getDenominatorWeight(Pattern<B,C> p) {
+		return this.getWeight(p);
+	}
+
+	/**
+	 * Whether a pattern matches a transaction when it is not contained in it.
+	 */
+	protected boolean isNegated() {
+		return false;
+	}
+
+	/**
+	 * Whether the weight of a matching pattern is scaled by its relative length.
+	 */
+	protected boolean isLengthNormalized() {
+		return false;
+	}
+
+	static <B extends Comparable<B>,C> Object[] getItems(Pattern<B,C> p) {
+		int length = 0;
+		ItemSet<B,Pair<C>> currentP = p.getItemSet();
+		while(currentP.getSuffix() !=null) {
+			length++;
+			currentP = currentP.getPrefix();
+		}
+
+		Object[] items = new Object[length];
+		currentP = p.getItemSet();
+		for(int i=0; i<length; i++) {
+			items[i] = currentP.getSuffix();
+			currentP = currentP.getPrefix();
+		}
+		return items;
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.jkarma.pbad.anomalies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jkarma.mining.interfaces.Lattice;
+import org.jkarma.model.Transaction;
+import org.jkarma.pbcd.patterns.Pattern;
+
+/**
+ * Anomaly score evaluating several compiled scores in a single lattice walk
+ * and a single pattern traversal per transaction.
+ * The first component drives the anomaly detection, while the whole vector
+ * of scores is carried by the events posted by the PBAD.
+ */
+public class CompositeAnomaly<A extends Transaction<B>, B extends Comparable<B>, C>
+implements AnomalyScorer<A,B,C>{
+	
+	private List<CompiledAnomaly<A,B,C>> components;
+	
+	@SafeVarargs
+	public CompositeAnomaly(CompiledAnomaly<A,B,C>... components) {
+		if(components==null || components.length==0) {
+			throw new IllegalArgumentException();
+		}
+		this.components = new ArrayList<>();
+		for(CompiledAnomaly<A,B,C> component : components) {
+			if(component==null) {
+				throw new IllegalArgumentException();
+			}
+			this.components.add(component);
+		}
+	}
+	
+	/**
+	 * Compiles the lattice into an immutable scoring model for all the components.
+	 * @param u The lattice of patterns.
+	 * @return the scoring model of the lattice.
+	 */
+	public CompositeScoringModel<B> compile(Lattice<Pattern<B, C>> u) {
+		int count = this.components.size();
+		List<Object[]> patterns = new ArrayList<>();
+		List<double[]> weights = new ArrayList<>();
+		double[] den = new double[count];
+		
+		//we iterate on the collection of frequent patterns, once for all the components
+		for(Pattern<B,C> p : u) {
+			if(p.getItemSet().getSuffix()!=null) {
+				double[] w = new double[count];
+				boolean qualifies = false;
+				for(int k=0; k<count; k++) {
+					CompiledAnomaly<A,B,C> component = this.components.get(k);
+					if(component.qualifies(p)) {
+						w[k] = component.getWeight(p);
+						den[k]+=component.getDenominatorWeight(p);
+						qualifies = true;
+					}
+				}
+				if(qualifies) {
+					patterns.add(CompiledAnomaly.getItems(p));
+					weights.add(w);
+				}
+			}
+		}
+		
+		double[][] matrix = new double[count][weights.size()];
+		boolean[] negated = new boolean[count];
+		boolean[] lengthNormalized = new boolean[count];
+		for(int k=0; k<count; k++) {
+			for(int i=0; i<weights.size(); i++) {
+				matrix[k][i] = weights.get(i)[k];
+			}
+			negated[k] = this.components.get(k).isNegated();
+			lengthNormalized[k] = this.components.get(k).isLengthNormalized();
+		}
+		return new CompositeScoringModel<B>(
+			new PatternIndex<B>(patterns), matrix, den, negated, lengthNormalized
+		);
+	}
+	
+	@Override
+	public BlockScorer<? super A> prepare(Lattice<Pattern<B, C>> u) {
+		//only the first component is returned, while PBAD scores the whole vector
+		CompositeScoringModel<B> model = this.compile(u);
+		return t -> model.score(t)[0];
+	}
+	
+	public int getComponentCount() {
+		return this.components.size();
+	}
+
+}
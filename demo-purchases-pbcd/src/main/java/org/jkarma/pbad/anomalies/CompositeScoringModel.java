@@ -0,0 +1,179 @@
+package org.jkarma.pbad.anomalies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.jkarma.model.Transaction;
+import org.jkarma.pbad.model.EncodedTransaction;
+
+/**
+ * Immutable snapshot of the patterns several anomaly scores depend on, compiled
+ * once per block from the lattice of a PBCD. The model keeps the union of the
+ * patterns qualifying for at least one score, each one with a weight for every
+ * score, so that all the scores of a transaction are computed while visiting its
+ * patterns once.
+ * Models are serializable, as long as their items are.
+ * @param <B> the type of items.
+ */
+public class CompositeScoringModel<B> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The patterns qualifying for at least one score.
+	 */
+	private final PatternIndex<B> patterns;
+
+	/**
+	 * The weight of each pattern for each score, zero when the pattern does not qualify.
+	 */
+	private final double[][] weights;
+
+	/**
+	 * The constant denominator of each score.
+	 */
+	private final double[] denominators;
+
+	/**
+	 * Whether a pattern matches when it is not contained in the transaction, for each score.
+	 */
+	private final boolean[] negated;
+
+	/**
+	 * Whether the weight of a matching pattern is scaled by its relative length, for each score.
+	 */
+	private final boolean[] lengthNormalized;
+
+	private final double[] totalWeights;
+	private final double[] totalLengthWeights;
+
+
+
+	CompositeScoringModel(PatternIndex<B> patterns, double[][] weights, double[] denominators,
+			boolean[] negated, boolean[] lengthNormalized) {
+		if(patterns==null || weights==null || denominators==null || weights.length!=denominators.length) {
+			throw new IllegalArgumentException();
+		}
+		this.patterns = patterns;
+		this.weights = weights;
+		this.denominators = denominators;
+		this.negated = negated;
+		this.lengthNormalized = lengthNormalized;
+
+		this.totalWeights = new double[weights.length];
+		this.totalLengthWeights = new double[weights.length];
+		for(int k=0; k<weights.length; k++) {
+			for(int i=0; i<patterns.size(); i++) {
+				this.totalWeights[k]+=weights[k][i];
+				this.totalLengthWeights[k]+=weights[k][i] * patterns.getLength(i);
+			}
+		}
+	}
+
+
+	/**
+	 * Computes all the anomaly scores of a transaction.
+	 * @param t The transaction to be scored.
+	 * @return the vector of scores, in the same order of the components.
+	 */
+	public double[] score(Transaction<B> t) {
+		double[] scores = new double[this.weights.length];
+		this.score(t, scores);
+		return scores;
+	}
+
+
+	/**
+	 * Computes all the anomaly scores of a transaction into an existing vector.
+	 * @param t The transaction to be scored.
+	 * @param scores The vector receiving the scores, in the same order of the components.
+	 */
+	public void score(Transaction<B> t, double[] scores) {
+		Collection<B> items = t.getItems();
+		double length = items.size();
+		Arrays.fill(scores, 0);
+
+		if(t instanceof EncodedTransaction) {
+			@SuppressWarnings("unchecked")
+			EncodedTransaction<B> et = (EncodedTransaction<B>)t;
+			PatternIndex.Encoding<B> enc = this.patterns.getEncoding(et.getDictionary());
+			long[] bits = et.getItemBits();
+
+			//we only visit the patterns indexed by the items of the transaction
+			for(int w=0; w<bits.length; w++) {
+				long word = bits[w];
+				while(word != 0) {
+					int[] candidates = enc.getCandidates((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+					if(candidates!=null) {
+						for(int i : candidates) {
+							if(enc.isContained(i, bits)) {
+								for(int k=0; k<scores.length; k++) {
+									scores[k]+=this.getWeight(k, i, length);
+								}
+							}
+						}
+					}
+				}
+			}
+
+			//non-contained patterns are obtained by difference from the total weight
+			for(int k=0; k<scores.length; k++) {
+				if(this.negated[k]) {
+					scores[k] = this.getTotalWeight(k, length) - scores[k];
+				}
+			}
+		}else {
+			for(int i=0; i<this.patterns.size(); i++) {
+				boolean contained = this.patterns.isContained(i, items);
+				for(int k=0; k<scores.length; k++) {
+					if(contained != this.negated[k]) {
+						scores[k]+=this.getWeight(k, i, length);
+					}
+				}
+			}
+		}
+
+		//we return the ratios
+		for(int k=0; k<scores.length; k++) {
+			scores[k] = scores[k]/this.denominators[k];
+		}
+	}
+
+
+	/**
+	 * Returns the number of scores computed by the model.
+	 * @return the number of components.
+	 */
+	public int getComponentCount() {
+		return this.weights.length;
+	}
+
+
+	/**
+	 * Returns the number of patterns qualifying for at least one score.
+	 * @return the number of patterns in the model.
+	 */
+	public int size() {
+		return this.patterns.size();
+	}
+
+
+	private double getTotalWeight(int k, double length) {
+		if(this.lengthNormalized[k]) {
+			return this.totalLengthWeights[k]/length;
+		}else {
+			return this.totalWeights[k];
+		}
+	}
+
+
+	private double getWeight(int k, int i, double length) {
+		if(this.lengthNormalized[k]) {
+			return this.weights[k][i] * ((double)this.patterns.getLength(i)/length);
+		}else {
+			return this.weights[k][i];
+		}
+	}
+}
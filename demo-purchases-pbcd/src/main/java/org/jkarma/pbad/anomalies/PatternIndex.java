@@ -0,0 +1,229 @@
+package org.jkarma.pbad.anomalies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jkarma.pbad.model.ItemDictionary;
+
+/**
+ * The patterns of a compiled scoring model, each one kept as a flat array of items.
+ * When scored transactions are encoded, the patterns are also encoded with the same
+ * {@link ItemDictionary} as sparse bitsets, along with an inverted index from items
+ * to patterns.
+ * @param <B> the type of items.
+ */
+class PatternIndex<B> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The items of each pattern.
+	 */
+	private final Object[][] patterns;
+
+	/**
+	 * The patterns encoded with the dictionary of the latest scored transaction.
+	 */
+	private transient volatile Encoding<B> encoding;
+
+
+
+	PatternIndex(List<Object[]> patterns) {
+		if(patterns==null) {
+			throw new IllegalArgumentException();
+		}
+		this.patterns = patterns.toArray(new Object[patterns.size()][]);
+	}
+
+
+	int size() {
+		return this.patterns.length;
+	}
+
+
+	int getLength(int i) {
+		return this.patterns[i].length;
+	}
+
+
+	Object[] getItems(int i) {
+		return this.patterns[i];
+	}
+
+
+	boolean isContained(int i, Collection<B> items) {
+		for(Object item : this.patterns[i]) {
+			if(!items.contains(item)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	Encoding<B> getEncoding(ItemDictionary<B> dictionary) {
+		Encoding<B> enc = this.encoding;
+		if(enc==null || enc.dictionary!=dictionary) {
+			//the patterns are encoded once for each dictionary in use
+			enc = new Encoding<B>(this.patterns, dictionary);
+			this.encoding = enc;
+		}
+		return enc;
+	}
+
+
+
+	/**
+	 * The patterns encoded as sparse bitsets, where only the non-empty words
+	 * of each pattern are kept along with their index.
+	 * The encoding also provides an inverted index, where each pattern is
+	 * posted under its item having the lowest id: a pattern contained in a
+	 * transaction is therefore reached exactly once from its items.
+	 */
+	static class Encoding<B> {
+
+		private final ItemDictionary<B> dictionary;
+		private final int[][] wordIndexes;
+		private final long[][] wordMasks;
+		private final int[][] postings;
+
+		@SuppressWarnings("unchecked")
+		private Encoding(Object[][] patterns, ItemDictionary<B> dictionary) {
+			this.dictionary = dictionary;
+			this.wordIndexes = new int[patterns.length][];
+			this.wordMasks = new long[patterns.length][];
+			int[] anchors = new int[patterns.length];
+			int maxAnchor = -1;
+
+			for(int i=0; i<patterns.length; i++) {
+				anchors[i] = -1;
+				int[] ids = new int[patterns[i].length];
+				boolean known = true;
+				for(int j=0; j<ids.length && known; j++) {
+					ids[j] = dictionary.lookup((B)patterns[i][j]);
+					known = (ids[j] >= 0);
+				}
+
+				if(known) {
+					Arrays.sort(ids);
+					anchors[i] = ids[0];
+					maxAnchor = Math.max(maxAnchor, ids[0]);
+					int words = 0;
+					for(int j=0; j<ids.length; j++) {
+						if(j==0 || (ids[j] >>> 6) != (ids[j-1] >>> 6)) {
+							words++;
+						}
+					}
+					this.wordIndexes[i] = new int[words];
+					this.wordMasks[i] = new long[words];
+					int w = -1;
+					for(int j=0; j<ids.length; j++) {
+						if(j==0 || (ids[j] >>> 6) != (ids[j-1] >>> 6)) {
+							w++;
+							this.wordIndexes[i][w] = ids[j] >>> 6;
+						}
+						this.wordMasks[i][w] |= 1L << ids[j];
+					}
+				}
+				//otherwise the pattern contains an item never seen by the dictionary,
+				//hence no encoded transaction can contain it.
+			}
+
+			//we build the inverted index from the anchor items
+			int[] counts = new int[maxAnchor + 1];
+			for(int anchor : anchors) {
+				if(anchor >= 0) {
+					counts[anchor]++;
+				}
+			}
+			this.postings = new int[maxAnchor + 1][];
+			for(int id=0; id<counts.length; id++) {
+				if(counts[id] > 0) {
+					this.postings[id] = new int[counts[id]];
+					counts[id] = 0;
+				}
+			}
+			for(int i=0; i<anchors.length; i++) {
+				if(anchors[i] >= 0) {
+					this.postings[anchors[i]][counts[anchors[i]]++] = i;
+				}
+			}
+		}
+
+		/**
+		 * Returns the patterns posted under an item.
+		 * @param id The id of the item.
+		 * @return the indexes of the patterns, or null if there are none.
+		 */
+		int[] getCandidates(int id) {
+			return (id < this.postings.length) ? this.postings[id] : null;
+		}
+
+		/**
+		 * Returns the number of items patterns can be posted under.
+		 */
+		int getAnchorCount() {
+			return this.postings.length;
+		}
+
+		/**
+		 * Intersects the columns of the items of a pattern, each one a bitset
+		 * over the transactions of a block, 64 transactions per word.
+		 * @param i The index of the pattern.
+		 * @param columns The column of each item id, or null if no transaction contains the item.
+		 * @param supporting The bitset receiving the transactions containing the pattern.
+		 * @return false if no transaction contains the pattern.
+		 */
+		boolean intersect(int i, long[][] columns, long[] supporting) {
+			int[] indexes = this.wordIndexes[i];
+			if(indexes==null) {
+				return false;
+			}
+			long[] masks = this.wordMasks[i];
+			boolean first = true;
+			for(int w=0; w<indexes.length; w++) {
+				long mask = masks[w];
+				while(mask != 0) {
+					int id = (indexes[w] << 6) + Long.numberOfTrailingZeros(mask);
+					mask &= mask - 1;
+					if(id >= columns.length || columns[id]==null) {
+						return false;
+					}
+					long[] column = columns[id];
+					long any = 0;
+					if(first) {
+						System.arraycopy(column, 0, supporting, 0, supporting.length);
+						any = 1;
+						first = false;
+					}else {
+						for(int k=0; k<supporting.length; k++) {
+							supporting[k] &= column[k];
+							any |= supporting[k];
+						}
+					}
+					if(any == 0) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		boolean isContained(int i, long[] bits) {
+			int[] indexes = this.wordIndexes[i];
+			if(indexes==null) {
+				return false;
+			}
+			long[] masks = this.wordMasks[i];
+			for(int w=0; w<indexes.length; w++) {
+				int index = indexes[w];
+				if(index >= bits.length || (bits[index] & masks[w]) != masks[w]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
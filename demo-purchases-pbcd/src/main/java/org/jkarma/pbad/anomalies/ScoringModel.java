@@ -0,0 +1,399 @@
+package org.jkarma.pbad.anomalies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jkarma.model.Transaction;
+import org.jkarma.pbad.model.EncodedTransaction;
+import org.jkarma.pbad.model.ItemDictionary;
+
+/**
+ * Immutable snapshot of the patterns an anomaly score depends on, compiled
+ * once per block from the lattice of a PBCD. Each qualifying pattern is kept
+ * as a flat array of items together with its precomputed weight, while the
+ * denominator of the score is a constant of the block.
+ * Scoring a transaction against the model walks these arrays only, without
+ * allocating any object. When the transaction is an {@link EncodedTransaction},
+ * containment is tested on its bitset with word-wise AND operations, and only
+ * the patterns reachable from the items of the transaction through an inverted
+ * index are visited. When the model was compiled with the TidSets of the recent
+ * window, the transactions of the window are looked up in them instead.
+ * When only the anomaly decision is needed, {@link #score(Transaction, double)}
+ * visits the patterns in descending weight order, and stops as soon as the bounds
+ * on the score tell on which side of the threshold it falls.
+ * A whole block of encoded transactions can also be scored at once by
+ * {@link #score(List, double[])}, on a bit matrix of the block.
+ * Models are serializable, as long as their items are.
+ * @param <B> the type of items.
+ */
+public class ScoringModel<B> implements BlockScorer<Transaction<B>>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The qualifying patterns.
+	 */
+	private final PatternIndex<B> patterns;
+
+	/**
+	 * The weight added to the numerator when a pattern matches.
+	 */
+	private final double[] weights;
+
+	/**
+	 * The constant denominator of the score.
+	 */
+	private final double denominator;
+
+	/**
+	 * Whether a pattern matches when it is not contained in the transaction.
+	 */
+	private final boolean negated;
+
+	/**
+	 * Whether the weight of a matching pattern is scaled by the ratio between
+	 * its length and the length of the transaction.
+	 */
+	private final boolean lengthNormalized;
+
+	/**
+	 * The sum of the weights of all the patterns.
+	 */
+	private final double totalWeight;
+
+	/**
+	 * The sum of the weights of all the patterns, each one scaled by its length.
+	 */
+	private final double totalLengthWeight;
+
+	/**
+	 * The indexes of the patterns in descending order of their (unnormalized) contribution.
+	 */
+	private final int[] order;
+
+	/**
+	 * The sum of the contributions of the patterns following each position of the order.
+	 */
+	private final double[] remaining;
+
+	/**
+	 * Whether the score can be bounded, that is, all the weights are non-negative.
+	 */
+	private final boolean bounded;
+
+	/**
+	 * The patterns supported by the transactions of the recent window, or null.
+	 * It is not saved along with the model, as the window is gone once restored.
+	 */
+	private final transient WindowMembership membership;
+
+
+
+	ScoringModel(PatternIndex<B> patterns, double[] weights, double denominator,
+			boolean negated, boolean lengthNormalized, WindowMembership membership) {
+		if(patterns==null || weights==null || patterns.size()!=weights.length) {
+			throw new IllegalArgumentException();
+		}
+		this.membership = membership;
+		this.patterns = patterns;
+		this.weights = weights;
+		this.denominator = denominator;
+		this.negated = negated;
+		this.lengthNormalized = lengthNormalized;
+
+		double total = 0;
+		double totalLength = 0;
+		for(int i=0; i<weights.length; i++) {
+			total+=weights[i];
+			totalLength+=weights[i] * patterns.getLength(i);
+		}
+		this.totalWeight = total;
+		this.totalLengthWeight = totalLength;
+
+		//we sort the patterns by contribution, which for normalized weights only
+		//differs by the length of the transaction, a constant of each scoring
+		double[] contributions = new double[weights.length];
+		boolean nonNegative = true;
+		for(int i=0; i<weights.length; i++) {
+			contributions[i] = this.getWeight(i, 1);
+			nonNegative &= (weights[i] >= 0);
+		}
+		this.order = new int[weights.length];
+		this.remaining = new double[weights.length + 1];
+		Integer[] sorted = new Integer[weights.length];
+		for(int i=0; i<sorted.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (i, j) -> Double.compare(contributions[j], contributions[i]));
+		for(int k=0; k<sorted.length; k++) {
+			this.order[k] = sorted[k];
+		}
+		for(int k=sorted.length-1; k>=0; k--) {
+			this.remaining[k] = this.remaining[k+1] + contributions[this.order[k]];
+		}
+		this.bounded = nonNegative && denominator > 0;
+	}
+
+
+	/**
+	 * Computes the anomaly score of a transaction.
+	 * @param t The transaction to be scored.
+	 * @return the ratio between the weights of the matching patterns and the denominator.
+	 */
+	@Override
+	public double score(Transaction<B> t) {
+		Collection<B> items = t.getItems();
+		double length = items.size();
+		double num = 0;
+		int row = (this.membership!=null) ? this.membership.indexOf(t.getId()) : -1;
+
+		if(row >= 0) {
+			//the supported patterns are read from the row of the transaction
+			long[] supported = this.membership.getRow(row);
+			double contained = 0;
+			for(int w=0; w<supported.length; w++) {
+				long word = supported[w];
+				while(word != 0) {
+					contained+=this.getWeight((w << 6) + Long.numberOfTrailingZeros(word), length);
+					word &= word - 1;
+				}
+			}
+			for(int i : this.membership.getUnresolved()) {
+				if(this.isContained(i, t)) {
+					contained+=this.getWeight(i, length);
+				}
+			}
+			num = this.negated ? this.getTotalWeight(length) - contained : contained;
+		}else if(t instanceof EncodedTransaction) {
+			@SuppressWarnings("unchecked")
+			EncodedTransaction<B> et = (EncodedTransaction<B>)t;
+			PatternIndex.Encoding<B> enc = this.patterns.getEncoding(et.getDictionary());
+			long[] bits = et.getItemBits();
+
+			//we only visit the patterns indexed by the items of the transaction
+			double contained = 0;
+			for(int w=0; w<bits.length; w++) {
+				long word = bits[w];
+				while(word != 0) {
+					int[] candidates = enc.getCandidates((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+					if(candidates!=null) {
+						for(int i : candidates) {
+							if(enc.isContained(i, bits)) {
+								contained+=this.getWeight(i, length);
+							}
+						}
+					}
+				}
+			}
+
+			//non-contained patterns are obtained by difference from the total weight
+			if(this.negated) {
+				num = this.getTotalWeight(length) - contained;
+			}else {
+				num = contained;
+			}
+		}else {
+			for(int i=0; i<this.patterns.size(); i++) {
+				if(this.patterns.isContained(i, items) != this.negated) {
+					num+=this.getWeight(i, length);
+				}
+			}
+		}
+
+		//we return the ratio
+		return num/this.denominator;
+	}
+
+
+	/**
+	 * Computes the anomaly score of a transaction only as far as needed for comparing
+	 * it with a threshold. The patterns are visited in descending weight order, while
+	 * the weights of the matching patterns give a lower bound on the score and the
+	 * weights of the patterns still to be visited give an upper bound: the visit
+	 * stops as soon as the lower bound exceeds the threshold, or the upper bound does not.
+	 * The returned value falls on the same side of the threshold as the exact score,
+	 * but it only equals the exact score when the visit could not be stopped early.
+	 * Models with negative weights or a non-positive denominator are scored exactly.
+	 * @param t The transaction to be scored.
+	 * @param threshold The threshold the score is compared with.
+	 * @return the exact score, or a bound on it deciding the comparison with the threshold.
+	 */
+	public double score(Transaction<B> t, double threshold) {
+		if(!this.bounded) {
+			return this.score(t);
+		}
+
+		Collection<B> items = t.getItems();
+		double length = items.size();
+		double scale = this.lengthNormalized ? 1.0/length : 1.0;
+		double limit = threshold * this.denominator;
+		int row = (this.membership!=null) ? this.membership.indexOf(t.getId()) : -1;
+		PatternIndex.Encoding<B> enc = null;
+		long[] bits = null;
+		if(t instanceof EncodedTransaction) {
+			@SuppressWarnings("unchecked")
+			EncodedTransaction<B> et = (EncodedTransaction<B>)t;
+			enc = this.patterns.getEncoding(et.getDictionary());
+			bits = et.getItemBits();
+		}
+
+		double num = 0;
+		for(int k=0; k<this.order.length; k++) {
+			//the decision is taken once no remaining pattern can change it
+			double upper = num + this.remaining[k] * scale;
+			if(num > limit || upper <= limit) {
+				return (num > limit) ? num/this.denominator : upper/this.denominator;
+			}
+
+			int i = this.order[k];
+			boolean contained;
+			if(row >= 0 && this.membership.isResolved(i)) {
+				contained = this.membership.isSupported(row, i);
+			}else if(enc!=null) {
+				contained = enc.isContained(i, bits);
+			}else {
+				contained = this.patterns.isContained(i, items);
+			}
+			if(contained != this.negated) {
+				num+=this.getWeight(i, length);
+			}
+		}
+
+		//we return the ratio
+		return num/this.denominator;
+	}
+
+
+	/**
+	 * Computes the anomaly scores of a block of transactions at once. The block is
+	 * transposed into an item by transaction bit matrix, where the column of each item
+	 * is a bitset of the transactions containing it, and the transactions supporting
+	 * each pattern are found by intersecting the columns of its items, a word of 64
+	 * transactions at a time. The scores equal the ones of {@link #score(Transaction)},
+	 * up to the rounding of the sums of the weights, which may be added in another order.
+	 * Blocks not encoded with the same dictionary are scored one transaction at a time.
+	 * @param transactions The transactions of the block.
+	 * @param scores The array receiving the score of each transaction, in the same order.
+	 */
+	public void score(List<? extends Transaction<B>> transactions, double[] scores) {
+		int n = transactions.size();
+		if(scores.length < n) {
+			throw new IllegalArgumentException();
+		}
+		ItemDictionary<B> dictionary = null;
+		for(Transaction<B> t : transactions) {
+			if(!(t instanceof EncodedTransaction) ||
+					(dictionary!=null && ((EncodedTransaction<B>)t).getDictionary()!=dictionary)) {
+				for(int r=0; r<n; r++) {
+					scores[r] = this.score(transactions.get(r));
+				}
+				return;
+			}
+			dictionary = ((EncodedTransaction<B>)t).getDictionary();
+		}
+		if(n == 0) {
+			return;
+		}
+
+		//we transpose the rows of the transactions into the columns of their items
+		int words = (n + 63) >>> 6;
+		double[] lengths = new double[n];
+		long[][] columns = new long[0][];
+		for(int r=0; r<n; r++) {
+			EncodedTransaction<B> et = (EncodedTransaction<B>)transactions.get(r);
+			lengths[r] = et.getItems().size();
+			long[] bits = et.getItemBits();
+			if(columns.length < (bits.length << 6)) {
+				columns = Arrays.copyOf(columns, bits.length << 6);
+			}
+			for(int w=0; w<bits.length; w++) {
+				long word = bits[w];
+				while(word != 0) {
+					int id = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					if(columns[id]==null) {
+						columns[id] = new long[words];
+					}
+					columns[id][r >>> 6] |= 1L << r;
+				}
+			}
+		}
+
+		//each pattern adds its weight to the transactions supporting it
+		PatternIndex.Encoding<B> enc = this.patterns.getEncoding(dictionary);
+		double[] contained = new double[n];
+		long[] supporting = new long[words];
+		int anchors = Math.min(enc.getAnchorCount(), columns.length);
+		for(int id=0; id<anchors; id++) {
+			int[] candidates = enc.getCandidates(id);
+			if(candidates==null || columns[id]==null) {
+				continue;
+			}
+			for(int i : candidates) {
+				if(!enc.intersect(i, columns, supporting)) {
+					continue;
+				}
+				for(int w=0; w<words; w++) {
+					long word = supporting[w];
+					while(word != 0) {
+						int r = (w << 6) + Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+						contained[r]+=this.getWeight(i, lengths[r]);
+					}
+				}
+			}
+		}
+
+		//non-contained patterns are obtained by difference from the total weight
+		for(int r=0; r<n; r++) {
+			double num = this.negated ? this.getTotalWeight(lengths[r]) - contained[r] : contained[r];
+			scores[r] = num/this.denominator;
+		}
+	}
+
+
+	/**
+	 * Returns the number of qualifying patterns.
+	 * @return the number of patterns in the model.
+	 */
+	public int size() {
+		return this.patterns.size();
+	}
+
+
+	public double getDenominator() {
+		return this.denominator;
+	}
+
+
+	private boolean isContained(int i, Transaction<B> t) {
+		if(t instanceof EncodedTransaction) {
+			@SuppressWarnings("unchecked")
+			EncodedTransaction<B> et = (EncodedTransaction<B>)t;
+			return this.patterns.getEncoding(et.getDictionary()).isContained(i, et.getItemBits());
+		}else {
+			return this.patterns.isContained(i, t.getItems());
+		}
+	}
+
+
+	private double getTotalWeight(double length) {
+		if(this.lengthNormalized) {
+			return this.totalLengthWeight/length;
+		}else {
+			return this.totalWeight;
+		}
+	}
+
+
+	private double getWeight(int i, double length) {
+		if(this.lengthNormalized) {
+			return this.weights[i] * ((double)this.patterns.getLength(i)/length);
+		}else {
+			return this.weights[i];
+		}
+	}
+}
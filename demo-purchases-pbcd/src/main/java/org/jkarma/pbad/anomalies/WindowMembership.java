@@ -0,0 +1,162 @@
+package org.jkarma.pbad.anomalies;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The patterns supported by each transaction of the recent window, built from the
+ * TidSets recorded by the PBCD for the items of the patterns. Each transaction
+ * supporting at least one pattern has a bitset over the patterns, so that telling
+ * whether it supports a pattern is a bit probe, instead of a containment test on its items.
+ * Since the lattice may retain patterns whose items are no longer in it, the patterns
+ * having an item without a TidSet are left unresolved, and must still be tested.
+ */
+class WindowMembership {
+
+	/**
+	 * The sorted ids of the transactions supporting at least one pattern.
+	 */
+	private final int[] tids;
+
+	/**
+	 * The bitset of the supported patterns, for each transaction.
+	 */
+	private final long[][] rows;
+
+	/**
+	 * The bitset of the patterns whose support is given by the rows.
+	 */
+	private final long[] resolved;
+
+	/**
+	 * The indexes of the patterns whose support is not given by the rows.
+	 */
+	private final int[] unresolved;
+
+
+
+	private WindowMembership(int[] tids, long[][] rows, long[] resolved, int[] unresolved) {
+		this.tids = tids;
+		this.rows = rows;
+		this.resolved = resolved;
+		this.unresolved = unresolved;
+	}
+
+
+	/**
+	 * Builds the membership of the recent window.
+	 * @param patterns The items of each pattern.
+	 * @param tidSets The ids of the transactions of the recent window containing each item.
+	 * @return the membership of the window.
+	 */
+	static <B> WindowMembership of(List<Object[]> patterns, Map<B, ? extends Collection<Integer>> tidSets) {
+		if(patterns==null || tidSets==null) {
+			throw new IllegalArgumentException();
+		}
+
+		//the transactions of the window are numbered by their position among the sorted ids
+		int total = 0;
+		for(Collection<Integer> tidSet : tidSets.values()) {
+			total+=tidSet.size();
+		}
+		int[] all = new int[total];
+		int n = 0;
+		for(Collection<Integer> tidSet : tidSets.values()) {
+			for(Integer tid : tidSet) {
+				all[n++] = tid;
+			}
+		}
+		Arrays.sort(all);
+		int distinct = 0;
+		for(int i=0; i<all.length; i++) {
+			if(i==0 || all[i]!=all[i-1]) {
+				all[distinct++] = all[i];
+			}
+		}
+		int[] tids = Arrays.copyOf(all, distinct);
+
+		//each item becomes a bitset over the positions of the transactions containing it
+		int positionWords = (distinct + 63) >>> 6;
+		Map<Object, long[]> columns = new HashMap<>();
+		for(Map.Entry<B, ? extends Collection<Integer>> entry : tidSets.entrySet()) {
+			long[] column = new long[positionWords];
+			for(Integer tid : entry.getValue()) {
+				int position = Arrays.binarySearch(tids, tid);
+				column[position >>> 6] |= 1L << position;
+			}
+			columns.put(entry.getKey(), column);
+		}
+
+		//the positions supporting a pattern are those containing all of its items
+		int patternWords = (patterns.size() + 63) >>> 6;
+		long[][] rows = new long[distinct][patternWords];
+		long[] resolved = new long[patternWords];
+		int[] unresolved = new int[patterns.size()];
+		int unresolvedCount = 0;
+		long[] supporting = new long[positionWords];
+		for(int i=0; i<patterns.size(); i++) {
+			Arrays.fill(supporting, -1L);
+			boolean known = true;
+			for(Object item : patterns.get(i)) {
+				long[] column = columns.get(item);
+				if(column==null) {
+					known = false;
+					break;
+				}
+				for(int w=0; w<positionWords; w++) {
+					supporting[w] &= column[w];
+				}
+			}
+			if(!known) {
+				unresolved[unresolvedCount++] = i;
+				continue;
+			}
+			resolved[i >>> 6] |= 1L << i;
+			for(int w=0; w<positionWords; w++) {
+				long word = supporting[w];
+				while(word != 0) {
+					int position = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					if(position < distinct) {
+						rows[position][i >>> 6] |= 1L << i;
+					}
+				}
+			}
+		}
+		return new WindowMembership(tids, rows, resolved, Arrays.copyOf(unresolved, unresolvedCount));
+	}
+
+
+	/**
+	 * Returns the row of a transaction.
+	 * @param tid The id of the transaction.
+	 * @return the row of the transaction, or -1 if it contains no item of the window.
+	 */
+	int indexOf(int tid) {
+		int row = Arrays.binarySearch(this.tids, tid);
+		return (row >= 0) ? row : -1;
+	}
+
+
+	long[] getRow(int row) {
+		return this.rows[row];
+	}
+
+
+	int[] getUnresolved() {
+		return this.unresolved;
+	}
+
+
+	boolean isResolved(int i) {
+		return (this.resolved[i >>> 6] & (1L << i)) != 0;
+	}
+
+
+	boolean isSupported(int row, int i) {
+		return (this.rows[row][i >>> 6] & (1L << i)) != 0;
+	}
+}
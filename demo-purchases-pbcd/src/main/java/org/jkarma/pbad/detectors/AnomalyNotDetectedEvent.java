@@ -4,9 +4,17 @@ import org.jkarma.model.Transaction;
 
 public class AnomalyNotDetectedEvent<A extends Transaction<B>, B extends Comparable<B>> extends PBADEvent<A,B> {
 
+	public AnomalyNotDetectedEvent(A transaction) {
+		super(transaction);
+	}
+
 	public AnomalyNotDetectedEvent(A transaction, double anomalyScore) {
 		super(transaction, anomalyScore);
 		// TODO Auto-generated constructor stub
 	}
 
+	public AnomalyNotDetectedEvent(A transaction, double[] anomalyScores) {
+		super(transaction, anomalyScores);
+	}
+
 }
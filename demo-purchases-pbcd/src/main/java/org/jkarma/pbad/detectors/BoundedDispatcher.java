@@ -0,0 +1,165 @@
+package org.jkarma.pbad.detectors;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor delivering the events of a PBAD to its listeners on a dedicated
+ * thread, so that the thread consuming the stream never runs a listener.
+ * Events are queued in a bounded buffer and delivered one at a time, in the
+ * same order they were posted. When the buffer is full, the configured
+ * {@link Policy} decides what happens to the posted event.
+ * PBAD also runs on a dispatcher the stage scoring the completed blocks.
+ */
+public class BoundedDispatcher implements Executor {
+
+	/**
+	 * The behaviour of the dispatcher when listeners cannot keep up.
+	 */
+	public enum Policy {
+		/**
+		 * The posting thread waits for room in the buffer, hence no event is lost.
+		 */
+		BLOCK,
+
+		/**
+		 * The posted event is discarded, hence the posting thread never waits.
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * The oldest queued event is discarded in favour of the posted one,
+		 * hence the posting thread never waits.
+		 */
+		DROP_OLDEST
+	}
+
+	private final ThreadPoolExecutor worker;
+	private final Policy policy;
+	private final AtomicLong dropped;
+
+
+
+	/**
+	 * Instantiate a dispatcher with a bounded buffer of events.
+	 * @param capacity The maximum number of events waiting for delivery.
+	 * @param policy The behaviour when the buffer is full.
+	 */
+	public BoundedDispatcher(int capacity, Policy policy) {
+		this(capacity, policy, "pbad-dispatcher");
+	}
+
+
+	/**
+	 * @param capacity The maximum number of tasks waiting for execution.
+	 * @param policy The behaviour when the buffer is full.
+	 * @param name The name of the thread executing the tasks.
+	 */
+	BoundedDispatcher(int capacity, Policy policy, String name) {
+		if(capacity<=0 || policy==null) {
+			throw new IllegalArgumentException();
+		}
+		this.policy = policy;
+		this.dropped = new AtomicLong();
+
+		//a single thread delivers the events, preserving their order
+		this.worker = new ThreadPoolExecutor(
+			1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(capacity),
+			r -> {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			},
+			new Backpressure()
+		);
+	}
+
+
+	@Override
+	public void execute(Runnable command) {
+		this.worker.execute(command);
+	}
+
+
+	/**
+	 * Returns the number of events discarded because the buffer was full.
+	 * @return the number of dropped events.
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+
+	/**
+	 * Returns the number of events waiting for delivery.
+	 * @return the number of queued events.
+	 */
+	public int getPendingCount() {
+		return this.worker.getQueue().size();
+	}
+
+
+	public Policy getPolicy() {
+		return this.policy;
+	}
+
+
+	/**
+	 * Stops accepting events, while the queued ones are still delivered.
+	 */
+	public void shutdown() {
+		this.worker.shutdown();
+	}
+
+
+	/**
+	 * Waits for the delivery of the queued events after a {@link #shutdown()}.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return true if every queued event was delivered, false if the timeout elapsed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.worker.awaitTermination(timeout, unit);
+	}
+
+
+
+	/**
+	 * Applies the policy of the dispatcher to the events rejected by the worker.
+	 */
+	private class Backpressure implements RejectedExecutionHandler {
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException("The dispatcher has been shut down");
+			}
+
+			switch(policy) {
+			case BLOCK:
+				try {
+					executor.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException(e);
+				}
+				break;
+			case DROP_OLDEST:
+				if(executor.getQueue().poll()!=null) {
+					dropped.incrementAndGet();
+				}
+				executor.execute(r);
+				break;
+			default:
+				dropped.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package org.jkarma.pbad.detectors;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jkarma.model.Transaction;
+import org.jkarma.pbad.model.CountMinSketch;
+
+/**
+ * Pre-filter deciding the transactions whose items are all common, or one of
+ * which is rare, without computing their pattern-based score. The frequencies of
+ * the items in the scored block are estimated by a {@link CountMinSketch}, and the
+ * relative frequency of the rarest item of a transaction is compared with two
+ * thresholds: below the rare frequency the transaction is deemed anomalous, at or
+ * above the common frequency it is deemed normal, while in the uncertain band
+ * between them its anomaly score is computed. The decisions of the pre-filter are
+ * heuristic, hence they may differ from the ones of the score.
+ * The outcomes of the pre-filter are counted, and can be counted by several threads at once.
+ * @param <B> the type of items.
+ */
+public class FrequencyFilter<B> {
+
+	private final double rareFrequency;
+	private final double commonFrequency;
+	private final int width;
+	private final int depth;
+	private final LongAdder anomalies;
+	private final LongAdder normals;
+	private final LongAdder uncertain;
+
+
+
+	/**
+	 * Instantiates a pre-filter with sketches of 1024 counters over 4 rows.
+	 * @param rareFrequency The relative frequency below which an item is rare, 0 for none.
+	 * @param commonFrequency The relative frequency from which an item is common,
+	 * {@link Double#POSITIVE_INFINITY} for none.
+	 */
+	public FrequencyFilter(double rareFrequency, double commonFrequency) {
+		this(rareFrequency, commonFrequency, 1024, 4);
+	}
+
+
+	/**
+	 * @param rareFrequency The relative frequency below which an item is rare, 0 for none.
+	 * @param commonFrequency The relative frequency from which an item is common,
+	 * {@link Double#POSITIVE_INFINITY} for none.
+	 * @param width The number of counters of each row of the sketches.
+	 * @param depth The number of rows of the sketches.
+	 */
+	public FrequencyFilter(double rareFrequency, double commonFrequency, int width, int depth) {
+		if(!(rareFrequency >= 0) || !(commonFrequency >= rareFrequency) || width<=0 || depth<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.rareFrequency = rareFrequency;
+		this.commonFrequency = commonFrequency;
+		this.width = width;
+		this.depth = depth;
+		this.anomalies = new LongAdder();
+		this.normals = new LongAdder();
+		this.uncertain = new LongAdder();
+	}
+
+
+	/**
+	 * Returns an empty sketch for the items of a block.
+	 */
+	CountMinSketch<B> newSketch() {
+		return new CountMinSketch<>(this.width, this.depth);
+	}
+
+
+	/**
+	 * Decides a transaction from the frequencies of its items in a block.
+	 * @param sketch The sketch of the items of the block.
+	 * @param t The transaction.
+	 * @return true if the transaction is anomalous, false if it is normal,
+	 * or null if its anomaly score must be computed.
+	 */
+	Boolean decide(CountMinSketch<B> sketch, Transaction<B> t) {
+		int count = sketch.getTransactionCount();
+		if(count == 0 || t.getItems().isEmpty()) {
+			this.uncertain.increment();
+			return null;
+		}
+		int rarest = Integer.MAX_VALUE;
+		for(B item : t.getItems()) {
+			rarest = Math.min(rarest, sketch.estimate(item));
+		}
+		double frequency = (double)rarest / count;
+		if(frequency < this.rareFrequency) {
+			this.anomalies.increment();
+			return Boolean.TRUE;
+		}else if(frequency >= this.commonFrequency) {
+			this.normals.increment();
+			return Boolean.FALSE;
+		}
+		this.uncertain.increment();
+		return null;
+	}
+
+
+	public long getAnomalyCount() {
+		return this.anomalies.sum();
+	}
+
+
+	public long getNormalCount() {
+		return this.normals.sum();
+	}
+
+
+	public long getUncertainCount() {
+		return this.uncertain.sum();
+	}
+
+
+	/**
+	 * Returns the fraction of the transactions decided without computing their score.
+	 * @return the fraction of the fast path, or zero if no transaction was filtered.
+	 */
+	public double getFastPathRatio() {
+		long decided = this.anomalies.sum() + this.normals.sum();
+		long total = decided + this.uncertain.sum();
+		return (total == 0) ? 0 : (double)decided / total;
+	}
+
+
+	/**
+	 * Returns a summary of the outcomes of the pre-filter.
+	 */
+	@Override
+	public String toString() {
+		return String.format("anomalous=%d, normal=%d, uncertain=%d, fast path=%.3f",
+			this.getAnomalyCount(), this.getNormalCount(), this.getUncertainCount(), this.getFastPathRatio());
+	}
+}
@@ -0,0 +1,207 @@
+package org.jkarma.pbad.detectors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.jkarma.mining.interfaces.ItemSet;
+import org.jkarma.mining.interfaces.Lattice;
+import org.jkarma.mining.structures.Pair;
+import org.jkarma.pbcd.patterns.Pattern;
+
+/**
+ * Immutable copy of the patterns of a PBCD lattice, taken while the PBCD notifies
+ * the completion of a block. The lattice of a PBCD is only valid until the
+ * notification returns, since jKarma recycles both the evaluations and the item
+ * sets of its patterns, while a snapshot can be scored against at any later time.
+ * The item sets are therefore copied, sharing their common prefixes, along with
+ * their evaluations: pairs are copied, and so are the evaluations backed by a set
+ * of transaction identifiers, such as tid-sets and diff-sets, while any other
+ * evaluation is shared with the lattice.
+ * Only the iteration over the patterns is supported.
+ * @param <B> the type of items.
+ * @param <C> the type of pattern evaluations.
+ */
+public class LatticeSnapshot<B extends Comparable<B>, C> implements Lattice<Pattern<B,C>> {
+
+	private final List<Pattern<B,C>> patterns;
+
+
+
+	private LatticeSnapshot() {
+		this.patterns = new ArrayList<>();
+	}
+
+
+	/**
+	 * Copies the patterns of a lattice.
+	 * @param lattice The lattice to be copied.
+	 * @return the snapshot of the lattice.
+	 */
+	public static <B extends Comparable<B>, C> LatticeSnapshot<B,C> of(Lattice<Pattern<B,C>> lattice) {
+		if(lattice==null) {
+			throw new IllegalArgumentException();
+		}
+		LatticeSnapshot<B,C> snapshot = new LatticeSnapshot<B,C>();
+		Map<ItemSet<B,Pair<C>>, ItemSet<B,Pair<C>>> copies = new IdentityHashMap<>();
+		Map<C,C> evals = new IdentityHashMap<>();
+		for(Pattern<B,C> p : lattice) {
+			snapshot.patterns.add(new Pattern<B,C>(
+				snapshot, copy(p.getItemSet(), copies, evals),
+				copy(p.getFirstEval(), evals), copy(p.getSecondEval(), evals)
+			));
+		}
+		return snapshot;
+	}
+
+
+	private static <B,C> ItemSet<B,Pair<C>> copy(ItemSet<B,Pair<C>> itemSet,
+			Map<ItemSet<B,Pair<C>>, ItemSet<B,Pair<C>>> copies, Map<C,C> evals) {
+		if(itemSet==null) {
+			return null;
+		}
+		ItemSet<B,Pair<C>> copy = copies.get(itemSet);
+		if(copy==null) {
+			Pair<C> eval = itemSet.getEval();
+			if(eval!=null) {
+				eval = Pair.of(copy(eval.getAggregate(), evals), copy(eval.getIncrement(), evals));
+			}
+			copy = new FrozenItemSet<B,Pair<C>>(
+				copy(itemSet.getPrefix(), copies, evals), itemSet.getSuffix(), eval, itemSet.getLength()
+			);
+			copies.put(itemSet, copy);
+		}
+		return copy;
+	}
+
+
+	/**
+	 * Copies an evaluation, once however many patterns refer to it.
+	 * The sets of transaction identifiers are cloned along with their counters.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <C> C copy(C eval, Map<C,C> evals) {
+		if(!(eval instanceof TreeSet)) {
+			return eval;
+		}
+		C copy = evals.get(eval);
+		if(copy==null) {
+			copy = (C)((TreeSet<?>)eval).clone();
+			evals.put(eval, copy);
+		}
+		return copy;
+	}
+
+
+	@Override
+	public Iterator<Pattern<B, C>> iterator() {
+		return Collections.unmodifiableList(this.patterns).iterator();
+	}
+
+	@Override
+	public Stream<Pattern<B, C>> stream() {
+		return this.patterns.stream();
+	}
+
+	@Override
+	public int getCount() {
+		return this.patterns.size();
+	}
+
+	@Override
+	public boolean isLimited() {
+		//a snapshot only holds the patterns enumerated when it was taken
+		return true;
+	}
+
+	@Override
+	public Collection<Pattern<B, C>> getGreaterElements(Pattern<B, C> element) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Collection<Pattern<B, C>> getLowerElements(Pattern<B, C> element) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Pattern<B, C> getJoin(Pattern<B, C> a, Pattern<B, C> b) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Pattern<B, C> getMeet(Pattern<B, C> a, Pattern<B, C> b) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Pattern<B, C> getMinimum() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Pattern<B, C> getMaximum() {
+		throw new UnsupportedOperationException();
+	}
+
+
+
+	/**
+	 * An immutable node of an item set, defined by its prefix and its last item.
+	 */
+	private static class FrozenItemSet<B,D> implements ItemSet<B,D> {
+
+		private final ItemSet<B,D> prefix;
+		private final B suffix;
+		private final D eval;
+		private final int length;
+
+		private FrozenItemSet(ItemSet<B,D> prefix, B suffix, D eval, int length) {
+			this.prefix = prefix;
+			this.suffix = suffix;
+			this.eval = eval;
+			this.length = length;
+		}
+
+		@Override
+		public int getLength() {
+			return this.length;
+		}
+
+		@Override
+		public ItemSet<B, D> getPrefix() {
+			return this.prefix;
+		}
+
+		@Override
+		public B getSuffix() {
+			return this.suffix;
+		}
+
+		@Override
+		public D getEval() {
+			return this.eval;
+		}
+
+		@Override
+		public B getKey() {
+			return this.suffix;
+		}
+
+		@Override
+		public D getValue() {
+			return this.eval;
+		}
+
+		@Override
+		public D setValue(D value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -15,12 +15,41 @@
  ******************************************************************************/
 package org.jkarma.pbad.detectors;
 
-import java.util.LinkedList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.jkarma.mining.interfaces.Lattice;
 import org.jkarma.model.Transaction;
+import org.jkarma.pbad.anomalies.AnomalyScorer;
+import org.jkarma.pbad.anomalies.BlockScorer;
+import org.jkarma.pbad.anomalies.CompiledAnomaly;
+import org.jkarma.pbad.anomalies.CompositeAnomaly;
+import org.jkarma.pbad.anomalies.CompositeScoringModel;
+import org.jkarma.pbad.anomalies.ScoringModel;
+import org.jkarma.pbad.metrics.LatencyHistogram;
+import org.jkarma.pbad.model.CountMinSketch;
 import org.jkarma.pbcd.detectors.PBCD;
 import org.jkarma.pbcd.events.ChangeDescriptionCompletedEvent;
 import org.jkarma.pbcd.events.ChangeDescriptionStartedEvent;
@@ -31,6 +60,7 @@ import org.jkarma.pbcd.events.PatternUpdateCompletedEvent;
 import org.jkarma.pbcd.events.PatternUpdateStartedEvent;
 import org.jkarma.pbcd.patterns.Pattern;
 
+import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 
 public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implements Consumer<A>{
@@ -43,7 +73,7 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 	/**
 	 * The delegate responsible of computing the anomaly scores.
 	 */
-	private BiFunction<A, Lattice<Pattern<B,C>>, Number> anomalyScore;
+	private AnomalyScorer<A,B,C> anomalyScore;
 	
 	/**
 	 * The minimum anomaly threshold for detecting anomalies.
@@ -55,9 +85,97 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 	 */
 	protected EventBus eventBus;
 	
+	/**
+	 * The executor delivering the events, or null when they are delivered synchronously.
+	 */
+	private Executor dispatcher;
+	
+	/**
+	 * The executor used for scoring the transactions of a block in parallel,
+	 * or null when they are scored on the thread consuming the stream.
+	 */
+	private Executor executor;
+	
+	/**
+	 * Whether transactions are scored upon arrival, instead of once their block is completed.
+	 */
+	private boolean scoreOnArrival;
+	
+	/**
+	 * Whether the exact scores are computed, rather than just the anomaly decisions.
+	 */
+	private boolean exactScores = true;
+	
+	/**
+	 * Whether compiled scores look the transactions of a block up in the TidSets of the patterns.
+	 */
+	private boolean windowMembership;
+	
+	/**
+	 * Whether compiled scores are computed for whole blocks at once, on a bit matrix of the block.
+	 */
+	private boolean batchScoring;
+	
+	/**
+	 * The scorer of the last completed block, used when scoring upon arrival, 
+	 * or null if its score could not outlive the PBCD callback.
+	 */
+	private Scorer latest;
+	
+	/**
+	 * Whether this detector was restored from a checkpoint, while its PBCD
+	 * has not completed a lattice yet.
+	 */
+	private boolean restored;
+	
 	private int bCount = 0;
 	private int tCount = 0;
-	private LinkedList<A> bucket;
+	
+	/**
+	 * The transactions waiting to be scored, along with their arrival time.
+	 */
+	private TransactionBuffer<A> bucket;
+	
+	/**
+	 * The latencies between the arrival of a transaction and the dispatch of its event.
+	 */
+	private LatencyHistogram latencies;
+	
+	/**
+	 * The memo of the scores of the itemsets seen within a lattice, or null if scores are not memoized.
+	 */
+	private ScoreCache<B> scoreCache;
+	
+	/**
+	 * The version of the last lattice a scorer was prepared against.
+	 */
+	private long latticeVersion;
+	
+	/**
+	 * The pre-filter deciding the transactions from the frequencies of their items, or null.
+	 */
+	private FrequencyFilter<B> frequencyFilter;
+	
+	/**
+	 * The frequencies of the items of the block being consumed by the PBCD, or null.
+	 */
+	private CountMinSketch<B> sketch;
+	
+	/**
+	 * The stage scoring the completed blocks while the next ones are mined, or null.
+	 */
+	private BoundedDispatcher pipeline;
+	
+	/**
+	 * The buffers of the blocks already scored by the stage, reused for the next blocks, or null.
+	 * At most the queued blocks, the one being scored and the one being filled are in use.
+	 */
+	private BlockingQueue<TransactionBuffer<A>> buffers;
+	
+	/**
+	 * The first failure of the scoring stage, or null.
+	 */
+	private volatile RuntimeException failure;
 
 	
 	
@@ -70,12 +188,71 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 	 * @param test
 	 */
 	public PBAD(PBCD<A,B,C,?> changeDetector, BiFunction<A, Lattice<Pattern<B,C>>, Number> anomalyScore, double minAnomaly) {
+		this(changeDetector, anomalyScore, minAnomaly, null);
+	}
+	
+	
+	/**
+	 * Instantiate a Pattern-based Anomaly Detector (PBAD) on top of an
+	 * existing Pattern-based Change Detection (PBCD) strategy, whose anomaly
+	 * score is evaluated against the whole lattice for each transaction.
+	 * The lattice is copied whenever it has to outlive the notification of the PBCD.
+	 * 
+	 * @param changeDetector
+	 * @param test
+	 * @param minAnomaly
+	 * @param dispatcher The executor delivering the events, or null for delivering 
+	 * them synchronously on the thread consuming the stream.
+	 */
+	public PBAD(PBCD<A,B,C,?> changeDetector, BiFunction<A, Lattice<Pattern<B,C>>, Number> anomalyScore, double minAnomaly, 
+			Executor dispatcher) {
+		this(changeDetector, new LatticeScorer<A,B,C>(anomalyScore), minAnomaly, dispatcher);
+	}
+	
+	
+	/**
+	 * Instantiate a Pattern-based Anomaly Detector (PBAD) on top of an
+	 * existing Pattern-based Change Detection (PBCD) strategy, whose anomaly
+	 * score is prepared once per block and then returns primitive scores.
+	 * 
+	 * @param changeDetector
+	 * @param anomalyScore
+	 * @param minAnomaly
+	 */
+	public PBAD(PBCD<A,B,C,?> changeDetector, AnomalyScorer<A,B,C> anomalyScore, double minAnomaly) {
+		this(changeDetector, anomalyScore, minAnomaly, null);
+	}
+	
+	
+	/**
+	 * Instantiate a Pattern-based Anomaly Detector (PBAD) on top of an
+	 * existing Pattern-based Change Detection (PBCD) strategy, whose events
+	 * are delivered to the listeners by a dispatcher. When the dispatcher runs
+	 * a single thread in FIFO order, such as a {@link BoundedDispatcher}, the
+	 * listeners receive the events in the order they were posted, while the
+	 * thread consuming the stream never waits for them.
+	 * 
+	 * @param changeDetector
+	 * @param anomalyScore
+	 * @param minAnomaly
+	 * @param dispatcher The executor delivering the events, or null for delivering 
+	 * them synchronously on the thread consuming the stream.
+	 */
+	public PBAD(PBCD<A,B,C,?> changeDetector, AnomalyScorer<A,B,C> anomalyScore, double minAnomaly, 
+			Executor dispatcher) {
 		if(changeDetector==null || anomalyScore==null) {
 			throw new IllegalArgumentException();
 		}
-		this.eventBus = new EventBus();
-		this.bucket = new LinkedList<A>();
+		if(dispatcher==null) {
+			this.eventBus = new EventBus();
+		}else {
+			this.eventBus = new AsyncEventBus(dispatcher);
+			this.dispatcher = dispatcher;
+		}
+		this.bucket = new TransactionBuffer<A>(changeDetector.getBlockSize());
+		this.latencies = new LatencyHistogram();
 		this.anomalyScore = anomalyScore;
+		this.minAnomaly = minAnomaly;
 		this.changeDetector = changeDetector;
 		this.changeDetector.registerListener(
 			new PBCDEventListener<B,C>(){
@@ -91,21 +268,21 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 
 				@Override
 				public void changeDetected(ChangeDetectedEvent<B, C> arg0) {
-					eventBus.post(arg0);
+					postChange(arg0);
 					
 					//then we test for anomalies, before jKarma dispose old data
-					this.checkAnomalies();
+					checkAnomalies();
 					tCount = changeDetector.getBlockSize();
 				}
 
 				@Override
 				public void changeNotDetected(ChangeNotDetectedEvent<B, C> arg0) {
-					eventBus.post(arg0);
+					postChange(arg0);
 					System.out.println("change not detected "+arg0.getAmount());
 					
 					//then we test for anomalies, before jKarma dispose old data 
 					//(eventually, depending on the time window model)
-					this.checkAnomalies();
+					checkAnomalies();
 				}
 
 				@Override
@@ -117,27 +294,7 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 				public void patternUpdateStarted(PatternUpdateStartedEvent<B, C> arg0) {
 					// TODO Auto-generated method stub
 				}
-				
-				private void checkAnomalies() {
-					int blockSize = changeDetector.getBlockSize();
-					
-					//We test for anomalies on previously cached transactions in the bucket.
-					//Then, we clear the bucket.
-					if(bucket.size() == blockSize) {
-						for(A tSaved : bucket) {
-							double score = anomalyScore.apply(tSaved, changeDetector.getLattice()).doubleValue();
-							boolean isAnomaly = (score <= minAnomaly);
-							if(isAnomaly) {
-								//we dispatch an anomaly-detected-event on tSaved transaction
-								eventBus.post(new AnomalyDetectedEvent<A,B>(tSaved, score));
-							}else {
-								//otherwise we dispatch an anomaly-not-detected-event on tSaved transaction
-								eventBus.post(new AnomalyNotDetectedEvent<A,B>(tSaved, score));
-							}
-						}
-						bucket.clear();
-					}
-				}
+
 			}
 		);
 	}
@@ -145,6 +302,8 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 
 	@Override
 	public void accept(A t) {
+		long arrival = System.nanoTime();
+		this.checkFailure();
 		int blockSize = this.changeDetector.getBlockSize();
 		
 		//increase the transaction count.
@@ -156,15 +315,442 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 		//We should wait the consumption of at least 2 blocks of transactions.
 		//This ensures that jKarma has accumulated at least two evaluations (time windows)
 		//for each pattern. we temporally save incoming transactions in a bucket for later use.
-		if(bCount>1) {
-			bucket.add(t);
+		if(this.scoreOnArrival) {
+			//the transaction is scored right away against the last completed block, if any
+			if(this.latest!=null) {
+				Boolean decision = this.latest.decide(t);
+				if(decision!=null) {
+					this.dispatch(t, decision, arrival);
+				}else if(this.latest.composite!=null) {
+					double[] scores = this.latest.scores(t);
+					this.dispatch(t, scores[0], scores, arrival);
+				}else {
+					this.dispatch(t, this.latest.score(t), null, arrival);
+				}
+			}
+		}else if(bCount>1) {
+			bucket.add(t, arrival);
 		}
 		
 		//we let the PBCD consume the transaction
+		if(this.sketch!=null) {
+			this.sketch.add(t.getItems());
+		}
 		this.changeDetector.accept(t);	
+		
+		//until the PBCD of a restored detector completes its first lattice,
+		//blocks are scored against the restored one
+		if(this.restored && this.latest!=null && this.bucket.size()==blockSize) {
+			this.scoreBucket(this.latest);
+		}
+	}
+	
+	
+	/**
+	 * Sets the executor used for scoring the transactions of a block in parallel.
+	 * The block is split in contiguous chunks, one for each available worker, and
+	 * the events are still posted in the arrival order of the transactions.
+	 * @param executor The executor, or null for scoring on the calling thread.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	
+	/**
+	 * Sets whether transactions are scored upon arrival. In this mode each transaction
+	 * is scored before being consumed by the PBCD, against the lattice of the last
+	 * completed block, so that its event is posted without waiting for its own block
+	 * to be completed. The reference windows of the scores are therefore one block
+	 * older than when scoring whole blocks, and no transaction is scored before
+	 * the PBCD completes its first lattice.
+	 * @param scoreOnArrival true for scoring each transaction upon arrival.
+	 */
+	public void setScoreOnArrival(boolean scoreOnArrival) {
+		this.scoreOnArrival = scoreOnArrival;
+	}
+	
+	
+	/**
+	 * Sets whether the exact anomaly scores are computed, which is the default.
+	 * Otherwise compiled scores stop visiting the patterns of a transaction as soon
+	 * as its comparison with the minimum anomaly threshold is decided, and the events
+	 * carry a bound on the score, on the same side of the threshold as the exact score.
+	 * Composite and non-compiled scores are always computed exactly.
+	 * @param exactScores false for computing the anomaly decisions only.
+	 */
+	public void setExactScores(boolean exactScores) {
+		this.exactScores = exactScores;
+	}
+	
+	
+	/**
+	 * Sets whether compiled scores tell which patterns a transaction of the completed
+	 * block supports by looking its id up in the TidSets the PBCD recorded for the block,
+	 * rather than by testing the containment of the patterns in its items.
+	 * It must only be enabled when the PBCD runs on a TidSetProvider, and it has no
+	 * effect when scoring upon arrival, since the scored transactions are not in the block yet.
+	 * @param windowMembership true for looking the transactions up in the TidSets.
+	 */
+	public void setWindowMembership(boolean windowMembership) {
+		this.windowMembership = windowMembership;
+	}
+	
+	
+	/**
+	 * Sets whether compiled scores are computed for the transactions of a block all at once,
+	 * by intersecting the bitsets of the transactions containing each item, instead of
+	 * looking up the patterns of each transaction in turn. Batch scores are always exact,
+	 * and they have no effect when scoring upon arrival, since transactions are scored one by one.
+	 * @param batchScoring true for scoring whole blocks at once.
+	 */
+	public void setBatchScoring(boolean batchScoring) {
+		this.batchScoring = batchScoring;
+	}
+	
+	
+	/**
+	 * Sets whether the completed blocks are scored on a separate stage, while the PBCD
+	 * consumes and mines the next ones. When a block is completed its score is still
+	 * compiled against the lattice, or prepared against a copy of it, and the block is
+	 * queued along with it for the scoring stage, which posts the events in the arrival
+	 * order of the transactions. When the queue is full, consuming a transaction that
+	 * completes a block waits for the scoring stage to catch up.
+	 * The buffers of the scored blocks are recycled, hence at most capacity plus two
+	 * of them are ever allocated.
+	 * The change events of the PBCD are posted by the scoring stage as well, after the
+	 * events of the blocks queued before them, so that the listeners are still called
+	 * by a single thread, in the order of the stream. As with an asynchronous dispatcher,
+	 * the description of a change is then read after the PBCD has moved on.
+	 * It has no effect when scoring upon arrival, since transactions are scored one by one.
+	 * Replacing a stage waits for it to score its queued blocks and post their events.
+	 * @param capacity The maximum number of blocks waiting to be scored, or 0 for scoring
+	 * each block before consuming the next transaction.
+	 * @throws InterruptedException if interrupted while waiting for the previous stage.
+	 */
+	public void setPipeline(int capacity) throws InterruptedException {
+		if(capacity<0) {
+			throw new IllegalArgumentException();
+		}
+		if(this.pipeline!=null) {
+			//the queued blocks are scored before the next ones reach the new stage
+			this.pipeline.shutdown();
+			this.pipeline.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		this.pipeline = (capacity > 0) ?
+			new BoundedDispatcher(capacity, BoundedDispatcher.Policy.BLOCK, "pbad-scorer") : null;
+		this.buffers = (capacity > 0) ? new ArrayBlockingQueue<>(capacity + 2) : null;
+	}
+	
+	
+	/**
+	 * Waits for the scoring stage to score the queued blocks and post their events.
+	 * It returns immediately when the blocks are not scored on a separate stage.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		if(this.pipeline!=null) {
+			CountDownLatch scored = new CountDownLatch(1);
+			this.pipeline.execute(scored::countDown);
+			scored.await();
+		}
+		this.checkFailure();
+	}
+	
+	
+	/**
+	 * Releases the threads of this detector, which must not consume any transaction
+	 * afterwards. The blocks queued for the scoring stage are scored, and the scoring
+	 * stage is shut down. A {@link BoundedDispatcher} delivering the events is shut down
+	 * as well, once the queued events are delivered, hence it must not be shared with
+	 * other detectors, while any other dispatcher is left running.
+	 * The transactions of the block being filled cannot be scored, and are discarded.
+	 * @return the number of discarded transactions, which never get an event.
+	 * @throws InterruptedException if interrupted while waiting for the stages.
+	 */
+	public int close() throws InterruptedException {
+		if(this.pipeline!=null) {
+			this.pipeline.shutdown();
+			this.pipeline.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			this.pipeline = null;
+			this.buffers = null;
+		}
+		if(this.dispatcher instanceof BoundedDispatcher) {
+			BoundedDispatcher events = (BoundedDispatcher)this.dispatcher;
+			events.shutdown();
+			events.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		int discarded = this.bucket.size();
+		this.bucket.clear();
+		this.checkFailure();
+		return discarded;
+	}
+	
+	
+	/**
+	 * Sets the capacity of the memo of the scores, so that transactions repeating the
+	 * items of a transaction scored against the same lattice are not scored again.
+	 * Only compiled and composite scores are memoized, since they only depend on the
+	 * items of a transaction, and the memo is invalidated whenever the PBCD completes a block.
+	 * @param capacity The maximum number of memoized itemsets, or 0 for not memoizing the scores.
+	 */
+	public void setScoreCache(int capacity) {
+		if(capacity<0) {
+			throw new IllegalArgumentException();
+		}
+		this.scoreCache = (capacity > 0) ? new ScoreCache<B>(capacity) : null;
+	}
+	
+	
+	/**
+	 * Returns the memo of the scores, along with its hit and miss counts.
+	 * @return the memo of the scores, or null if scores are not memoized.
+	 */
+	public ScoreCache<B> getScoreCache() {
+		return this.scoreCache;
+	}
+	
+	
+	/**
+	 * Sets the pre-filter deciding the transactions from the frequencies of their items
+	 * in the block they are scored against, estimated by a sketch of each block consumed
+	 * by the PBCD. Only the transactions in the uncertain band of the pre-filter are scored,
+	 * while the events of the others are marked as {@link PBADEvent#isPrefiltered() prefiltered},
+	 * and carry a NaN score which must not be recorded among the scores of the others.
+	 * Composite scores are not filtered, and neither are blocks scored against a restored model.
+	 * @param frequencyFilter The pre-filter, or null for scoring every transaction.
+	 */
+	public void setFrequencyFilter(FrequencyFilter<B> frequencyFilter) {
+		this.frequencyFilter = frequencyFilter;
+		this.sketch = (frequencyFilter!=null) ? frequencyFilter.newSketch() : null;
+	}
+	
+	
+	/**
+	 * Returns the pre-filter, along with the counts of its outcomes.
+	 * @return the pre-filter, or null if every transaction is scored.
+	 */
+	public FrequencyFilter<B> getFrequencyFilter() {
+		return this.frequencyFilter;
 	}
 	
 	
+	/**
+	 * Returns the histogram of the latencies between the arrival of a transaction,
+	 * through {@link #accept(Transaction)}, and the dispatch of its anomaly event.
+	 * @return the latency histogram of this detector.
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return this.latencies;
+	}
+	
+	
+	/**
+	 * Saves the state of this detector to a file, so that a new detector can resume
+	 * scoring right after being restored. The state consists of the transaction counters,
+	 * the transactions waiting to be scored, and the scoring model compiled from the
+	 * lattice of the last completed block, which must therefore be a {@link CompiledAnomaly}
+	 * or a {@link CompositeAnomaly}. The internal state of the PBCD is not saved.
+	 * The blocks queued for the scoring stage are scored before saving the state.
+	 * @param file The checkpoint file.
+	 * @throws IOException if the state cannot be written, or if a transaction or an item is not serializable.
+	 */
+	public void checkpoint(File file) throws IOException {
+		try {
+			this.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(this.changeDetector.getBlockSize());
+			out.writeInt(this.tCount);
+			out.writeInt(this.bCount);
+			if(this.latest!=null) {
+				out.writeObject((this.latest.composite!=null) ? this.latest.composite : this.latest.model);
+			}else {
+				out.writeObject(null);
+			}
+			out.writeInt(this.bucket.size());
+			for(int i=0; i<this.bucket.size(); i++) {
+				out.writeObject(this.bucket.get(i));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Restores the state of a detector from a checkpoint, before consuming any transaction.
+	 * The transactions waiting to be scored are consumed again by the PBCD, which starts
+	 * mining from them, while the restored scoring model is used until the PBCD completes
+	 * its first lattice.
+	 * @param file The checkpoint file, saved by a detector with the same block size.
+	 * @throws IOException if the state cannot be read.
+	 */
+	@SuppressWarnings("unchecked")
+	public void restore(File file) throws IOException {
+		if(this.tCount!=0) {
+			throw new IllegalStateException("The detector has already consumed transactions");
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))))) {
+			int blockSize = in.readInt();
+			if(blockSize!=this.changeDetector.getBlockSize()) {
+				throw new IOException("The checkpoint was saved with block size "+blockSize);
+			}
+			this.tCount = in.readInt();
+			this.bCount = in.readInt();
+			Object model = in.readObject();
+			if(model instanceof CompositeScoringModel) {
+				this.latest = new Scorer(null, (CompositeScoringModel<B>)model);
+			}else if(model instanceof ScoringModel) {
+				this.latest = new Scorer((ScoringModel<B>)model, null);
+			}
+			this.restored = true;
+			
+			int pending = in.readInt();
+			long now = System.nanoTime();
+			for(int i=0; i<pending; i++) {
+				A t = (A)in.readObject();
+				this.bucket.add(t, now);
+				if(this.sketch!=null) {
+					this.sketch.add(t.getItems());
+				}
+				this.changeDetector.accept(t);
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	
+	private void checkAnomalies() {
+		int blockSize = changeDetector.getBlockSize();
+		restored = false;
+		
+		//the items of the completed block are sketched apart from the next one
+		CountMinSketch<B> items = sketch;
+		if(frequencyFilter!=null) {
+			sketch = frequencyFilter.newSketch();
+		}
+		
+		if(scoreOnArrival) {
+			//the lattice is retained for scoring the transactions of the next block
+			latest = new Scorer(changeDetector.getLattice(), true, false, items);
+			return;
+		}
+		
+		//We test for anomalies on previously cached transactions in the bucket.
+		//Then, we clear the bucket.
+		if(bucket.size() == blockSize) {
+			Scorer scorer = new Scorer(changeDetector.getLattice(), pipeline!=null, true, items);
+			scoreBucket(scorer);
+			
+			//compiled models are kept for checkpoints
+			latest = scorer.retainsLattice ? null : scorer;
+		}
+	}
+	
+	
+	private void scoreBucket(Scorer scorer) {
+		if(pipeline==null) {
+			scoreBlock(bucket, scorer);
+			bucket.clear();
+			return;
+		}
+		
+		//the block is handed to the scoring stage, while the next one fills
+		//the bucket of a block already scored, if any
+		TransactionBuffer<A> block = bucket;
+		BlockingQueue<TransactionBuffer<A>> free = buffers;
+		bucket = free.poll();
+		if(bucket==null) {
+			bucket = new TransactionBuffer<A>(block.capacity());
+		}
+		pipeline.execute(() -> {
+			try {
+				scoreBlock(block, scorer);
+			} catch (RuntimeException e) {
+				if(failure==null) {
+					failure = e;
+				}
+			} finally {
+				block.clear();
+				free.offer(block);
+			}
+		});
+	}
+	
+	
+	private void scoreBlock(TransactionBuffer<A> block, Scorer scorer) {
+		//the lattice is read-only while scoring, hence the block can be scored in parallel
+		BlockScoring scoring = new BlockScoring(block, scorer);
+		scoring.run();
+		
+		for(int i=0; i<block.size(); i++) {
+			if(scoring.decisions!=null && scoring.decisions[i]!=null) {
+				dispatch(block.get(i), scoring.decisions[i], block.getArrival(i));
+				continue;
+			}
+			double[] scores = (scoring.vectors!=null) ? scoring.vectors[i] : null;
+			dispatch(block.get(i), scoring.scores[i], scores, block.getArrival(i));
+		}
+	}
+	
+	
+	private void postChange(Object event) {
+		if(pipeline!=null && !scoreOnArrival) {
+			//the change follows the events of the blocks completed before it
+			pipeline.execute(() -> eventBus.post(event));
+		}else {
+			eventBus.post(event);
+		}
+	}
+	
+	
+	private void checkFailure() {
+		RuntimeException e = this.failure;
+		if(e!=null) {
+			throw new IllegalStateException("A block could not be scored", e);
+		}
+	}
+	
+	
+	
+	private void dispatch(A t, boolean isAnomaly, long arrival) {
+		latencies.record(System.nanoTime() - arrival);
+		//the transaction was decided by the pre-filter, hence it has no score
+		if(isAnomaly) {
+			eventBus.post(new AnomalyDetectedEvent<A,B>(t));
+		}else {
+			eventBus.post(new AnomalyNotDetectedEvent<A,B>(t));
+		}
+	}
+	
+	
+	private void dispatch(A t, double score, double[] scores, long arrival) {
+		boolean isAnomaly = (score <= minAnomaly);
+		latencies.record(System.nanoTime() - arrival);
+		if(isAnomaly) {
+			//we dispatch an anomaly-detected-event on the transaction
+			if(scores!=null) {
+				eventBus.post(new AnomalyDetectedEvent<A,B>(t, scores));
+			}else {
+				eventBus.post(new AnomalyDetectedEvent<A,B>(t, score));
+			}
+		}else {
+			//otherwise we dispatch an anomaly-not-detected-event on the transaction
+			if(scores!=null) {
+				eventBus.post(new AnomalyNotDetectedEvent<A,B>(t, scores));
+			}else {
+				eventBus.post(new AnomalyNotDetectedEvent<A,B>(t, score));
+			}
+		}
+	}
+	
+	
+	
 	/**
 	 * Register an event listener to this PBCD.
 	 * @param eventListener The EventListener object.
@@ -181,4 +767,265 @@ public class PBAD<A extends Transaction<B>, B extends Comparable<B>, C> implemen
 	public void unregisterListener(PBADEventListener<A,B,C> eventListener) {
 		this.eventBus.unregister(eventListener);
 	}
+	
+	
+	
+	/**
+	 * The anomaly score prepared for the lattice of a block.
+	 * Compiled scores walk the lattice once per block, instead of once per transaction.
+	 */
+	private class Scorer {
+		
+		private final BlockScorer<? super A> block;
+		private final ScoringModel<B> model;
+		private final CompositeScoringModel<B> composite;
+		
+		/**
+		 * Whether the block scorer reads the lattice of the PBCD, which is disposed after the callback.
+		 */
+		private final boolean retainsLattice;
+		
+		/**
+		 * The version of the lattice, tagging the memoized scores.
+		 */
+		private final long version;
+		
+		/**
+		 * The frequencies of the items of the block, read by the pre-filter, or null.
+		 */
+		private final CountMinSketch<B> items;
+		
+		/**
+		 * @param lattice The lattice of the block.
+		 * @param retained Whether the scorer outlives the PBCD callback, in which case
+		 * the lattice is copied when the score reads it, before jKarma disposes it.
+		 * @param inWindow Whether the scored transactions are the ones of the recent window of the lattice.
+		 * @param items The frequencies of the items of the block, or null.
+		 */
+		@SuppressWarnings("unchecked")
+		private Scorer(Lattice<Pattern<B,C>> lattice, boolean retained, boolean inWindow, CountMinSketch<B> items) {
+			this.composite = (anomalyScore instanceof CompositeAnomaly) ?
+				((CompositeAnomaly<A,B,C>)anomalyScore).compile(lattice) : null;
+			this.model = (anomalyScore instanceof CompiledAnomaly) ?
+				((CompiledAnomaly<A,B,C>)anomalyScore).compile(lattice, windowMembership && inWindow) : null;
+			this.retainsLattice = (anomalyScore instanceof LatticeScorer) && !retained;
+			this.version = ++latticeVersion;
+			this.items = items;
+			
+			if(this.model!=null || this.composite!=null) {
+				this.block = this.model;
+			}else if(anomalyScore instanceof LatticeScorer && retained) {
+				this.block = anomalyScore.prepare(LatticeSnapshot.of(lattice));
+			}else {
+				this.block = anomalyScore.prepare(lattice);
+			}
+		}
+		
+		private Scorer(ScoringModel<B> model, CompositeScoringModel<B> composite) {
+			this.block = model;
+			this.model = model;
+			this.composite = composite;
+			this.retainsLattice = false;
+			this.version = ++latticeVersion;
+			this.items = null;
+		}
+		
+		/**
+		 * Decides a transaction by the pre-filter, whose score is only computed
+		 * when it cannot be decided.
+		 * @return whether the transaction is anomalous, or null if it must be scored.
+		 */
+		private Boolean decide(A t) {
+			if(this.items==null || this.composite!=null) {
+				return null;
+			}
+			return frequencyFilter.decide(this.items, t);
+		}
+		
+		private double score(A t) {
+			if(this.composite!=null) {
+				return this.scores(t)[0];
+			}
+			if(this.model==null) {
+				//other scores may depend on more than the items, hence they are not memoized
+				return this.block.score(t);
+			}
+			
+			ScoreCache.Key key = null;
+			if(scoreCache!=null) {
+				key = ScoreCache.keyOf(t);
+				ScoreCache.Entry entry = scoreCache.get(key, this.version);
+				if(entry!=null) {
+					return entry.getScore();
+				}
+			}
+			double score = exactScores ? this.model.score(t) : this.model.score(t, minAnomaly);
+			if(key!=null) {
+				scoreCache.put(key, this.version, score, null);
+			}
+			return score;
+		}
+		
+		/**
+		 * Computes the scores of a range of transactions at once, except for the ones
+		 * memoized or decided by the pre-filter, whose decisions are stored apart from
+		 * the scores. When scores are memoized, the transactions
+		 * repeating the items of another one in the range are only scored once.
+		 */
+		private void score(TransactionBuffer<A> transactions, int from, int to, double[] scores, Boolean[] decisions) {
+			List<A> pending = new ArrayList<>(to - from);
+			int[] slots = new int[to - from];
+			ScoreCache.Key[] keys = (scoreCache!=null) ? new ScoreCache.Key[to - from] : null;
+			Map<ScoreCache.Key, Integer> scored = (scoreCache!=null) ? new HashMap<>() : null;
+			int[] repeated = new int[to - from];
+			int[] originals = new int[to - from];
+			int repeatedCount = 0;
+			for(int i=from; i<to; i++) {
+				A t = transactions.get(i);
+				if(decisions!=null && (decisions[i] = this.decide(t))!=null) {
+					scores[i] = Double.NaN;
+					continue;
+				}
+				if(keys!=null) {
+					ScoreCache.Key key = ScoreCache.keyOf(t);
+					ScoreCache.Entry entry = scoreCache.get(key, this.version);
+					if(entry!=null) {
+						scores[i] = entry.getScore();
+						continue;
+					}
+					Integer original = scored.putIfAbsent(key, pending.size());
+					if(original!=null) {
+						repeated[repeatedCount] = i;
+						originals[repeatedCount++] = original;
+						continue;
+					}
+					keys[pending.size()] = key;
+				}
+				slots[pending.size()] = i;
+				pending.add(t);
+			}
+			
+			double[] computed = new double[pending.size()];
+			this.model.score(pending, computed);
+			for(int k=0; k<computed.length; k++) {
+				scores[slots[k]] = computed[k];
+				if(keys!=null) {
+					scoreCache.put(keys[k], this.version, computed[k], null);
+				}
+			}
+			for(int k=0; k<repeatedCount; k++) {
+				scores[repeated[k]] = computed[originals[k]];
+			}
+		}
+		
+		private double[] scores(A t) {
+			ScoreCache.Key key = null;
+			if(scoreCache!=null) {
+				key = ScoreCache.keyOf(t);
+				ScoreCache.Entry entry = scoreCache.get(key, this.version);
+				if(entry!=null) {
+					return entry.getScores();
+				}
+			}
+			double[] scores = this.composite.score(t);
+			if(key!=null) {
+				scoreCache.put(key, this.version, scores[0], scores.clone());
+			}
+			return scores;
+		}
+	}
+	
+	
+	
+	/**
+	 * The adapter of an anomaly score evaluated against the whole lattice
+	 * for each transaction, whose block scorers read the lattice.
+	 */
+	private static class LatticeScorer<A extends Transaction<B>, B extends Comparable<B>, C>
+	implements AnomalyScorer<A,B,C> {
+		
+		private final BiFunction<A, Lattice<Pattern<B,C>>, Number> function;
+		
+		private LatticeScorer(BiFunction<A, Lattice<Pattern<B,C>>, Number> function) {
+			if(function==null) {
+				throw new IllegalArgumentException();
+			}
+			this.function = function;
+		}
+		
+		@Override
+		public BlockScorer<? super A> prepare(Lattice<Pattern<B,C>> lattice) {
+			return t -> this.function.apply(t, lattice).doubleValue();
+		}
+	}
+	
+	
+	
+	/**
+	 * The scoring of the transactions in a block against the same lattice.
+	 */
+	private class BlockScoring {
+		
+		private final TransactionBuffer<A> transactions;
+		private final Scorer scorer;
+		private final double[] scores;
+		private final double[][] vectors;
+		
+		/**
+		 * The decisions of the pre-filter, null for the scored transactions, or null if not filtered.
+		 */
+		private final Boolean[] decisions;
+		
+		private BlockScoring(TransactionBuffer<A> transactions, Scorer scorer) {
+			this.transactions = transactions;
+			this.scorer = scorer;
+			this.scores = new double[transactions.size()];
+			this.vectors = (scorer.composite!=null) ? new double[transactions.size()][] : null;
+			this.decisions = (scorer.items!=null) ? new Boolean[transactions.size()] : null;
+		}
+		
+		private void run() {
+			int workers = 1;
+			if(executor instanceof ForkJoinPool) {
+				workers = ((ForkJoinPool)executor).getParallelism();
+			}else if(executor != null) {
+				workers = Runtime.getRuntime().availableProcessors();
+			}
+			workers = Math.min(workers, this.transactions.size());
+			
+			if(workers <= 1) {
+				this.run(0, this.transactions.size());
+			}else {
+				//each worker scores a contiguous chunk, writing on its own slots only,
+				//and rounding the chunks up may leave the trailing workers without any
+				int chunkSize = (this.transactions.size() + workers - 1) / workers;
+				workers = (this.transactions.size() + chunkSize - 1) / chunkSize;
+				CompletableFuture<?>[] chunks = new CompletableFuture<?>[workers];
+				for(int w=0; w<workers; w++) {
+					int from = w * chunkSize;
+					int to = Math.min(from + chunkSize, this.transactions.size());
+					chunks[w] = CompletableFuture.runAsync(() -> this.run(from, to), executor);
+				}
+				CompletableFuture.allOf(chunks).join();
+			}
+		}
+		
+		private void run(int from, int to) {
+			if(batchScoring && this.scorer.model!=null) {
+				this.scorer.score(this.transactions, from, to, this.scores, this.decisions);
+				return;
+			}
+			for(int i=from; i<to; i++) {
+				A t = this.transactions.get(i);
+				if(this.decisions!=null && (this.decisions[i] = this.scorer.decide(t))!=null) {
+					this.scores[i] = Double.NaN;
+				}else if(this.vectors!=null) {
+					this.vectors[i] = this.scorer.scores(t);
+					this.scores[i] = this.vectors[i][0];
+				}else {
+					this.scores[i] = this.scorer.score(t);
+				}
+			}
+		}
+	}
 }
@@ -14,6 +14,26 @@ public class PBADEvent<A extends Transaction<B>, B extends Comparable<B>> {
 	 */
 	private double anomalyScore;
 	
+	/**
+	 * The vector of anomaly scores, when the transaction is scored by a composite score.
+	 */
+	private double[] anomalyScores;
+	
+	/**
+	 * Whether the transaction was decided by the pre-filter, without computing its score.
+	 */
+	private boolean prefiltered;
+	
+	/**
+	 * Instantiates the event of a transaction decided by the pre-filter of the
+	 * detector, whose anomaly score is NaN since it was not computed.
+	 * @param transaction The transaction.
+	 */
+	public PBADEvent(A transaction) {
+		this(transaction, Double.NaN);
+		this.prefiltered = true;
+	}
+	
 	public PBADEvent(A transaction, double anomalyScore) {
 		if(transaction==null) {
 			throw new IllegalArgumentException();
@@ -21,6 +41,15 @@ public class PBADEvent<A extends Transaction<B>, B extends Comparable<B>> {
 		this.transaction = transaction;
 		this.anomalyScore = anomalyScore;
 	}
+	
+	public PBADEvent(A transaction, double[] anomalyScores) {
+		if(transaction==null || anomalyScores==null || anomalyScores.length==0) {
+			throw new IllegalArgumentException();
+		}
+		this.transaction = transaction;
+		this.anomalyScore = anomalyScores[0];
+		this.anomalyScores = anomalyScores;
+	}
 
 	public A getTransaction() {
 		return transaction;
@@ -29,4 +58,24 @@ public class PBADEvent<A extends Transaction<B>, B extends Comparable<B>> {
 	public double getAnomalyScore() {
 		return anomalyScore;
 	}
+
+	/**
+	 * Returns whether the transaction was decided by the pre-filter of the detector,
+	 * in which case its anomaly score is NaN and must not be compared with thresholds.
+	 */
+	public boolean isPrefiltered() {
+		return prefiltered;
+	}
+
+	/**
+	 * Returns all the anomaly scores computed on the transaction. The first
+	 * one is the score used for detecting the anomaly.
+	 * @return the vector of anomaly scores.
+	 */
+	public double[] getAnomalyScores() {
+		if(anomalyScores==null) {
+			return new double[] {anomalyScore};
+		}
+		return anomalyScores.clone();
+	}
 }
@@ -0,0 +1,324 @@
+package org.jkarma.pbad.detectors;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.jkarma.model.Transaction;
+
+/**
+ * Anomaly detector partitioning a stream of transactions by key, for instance
+ * by card, where each partition is monitored by its own PBAD.
+ * Partitions are spread over a fixed number of shards, each one running on a
+ * single thread: the transactions of a partition are therefore consumed in
+ * their arrival order, while distinct partitions are processed in parallel.
+ * The state of a partition is created upon its first transaction, and it is
+ * evicted once the partition has been idle for too long, or when its shard
+ * holds too many partitions. The detector of an evicted partition is closed,
+ * discarding the transactions of its incomplete block, which are counted.
+ * Listeners are shared by all the partitions, and they are notified by the
+ * threads of the shards, hence they must be thread-safe.
+ * @param <A> the type of transactions.
+ * @param <B> the type of items.
+ * @param <C> the type of pattern evaluations.
+ * @param <K> the type of partition keys.
+ */
+public class PartitionedPBAD<A extends Transaction<B>, B extends Comparable<B>, C, K> implements Consumer<A>{
+
+	/**
+	 * The function extracting the partition key of a transaction.
+	 */
+	private Function<A,K> partitioner;
+
+	/**
+	 * The function building the detector of a new partition.
+	 */
+	private Function<K, PBAD<A,B,C>> factory;
+
+	private List<Shard> shards;
+	private List<PBADEventListener<A,B,C>> listeners;
+	private volatile long idleTimeout = Long.MAX_VALUE;
+	private volatile int maxPartitions = Integer.MAX_VALUE;
+	private AtomicInteger partitionCount;
+	private AtomicLong evictedCount;
+	private AtomicLong discardedCount;
+
+	/**
+	 * The timer looking for idle partitions, created along with the first idle timeout.
+	 */
+	private ScheduledExecutorService sweeper;
+	private ScheduledFuture<?> sweep;
+
+
+
+	/**
+	 * Instantiate a partitioned anomaly detector.
+	 * @param partitioner The function extracting the partition key of a transaction.
+	 * @param factory The function building a new PBAD, along with its PBCD, for a partition key.
+	 * @param shards The number of threads consuming the transactions.
+	 * @param capacity The maximum number of transactions waiting in each shard,
+	 * after which the thread calling {@link #accept(Transaction)} waits.
+	 */
+	public PartitionedPBAD(Function<A,K> partitioner, Function<K, PBAD<A,B,C>> factory, int shards, int capacity) {
+		if(partitioner==null || factory==null || shards<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.partitioner = partitioner;
+		this.factory = factory;
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.partitionCount = new AtomicInteger();
+		this.evictedCount = new AtomicLong();
+		this.discardedCount = new AtomicLong();
+		this.shards = new ArrayList<>(shards);
+		for(int i=0; i<shards; i++) {
+			this.shards.add(new Shard(capacity, "pbad-shard-" + i));
+		}
+	}
+
+
+	@Override
+	public void accept(A t) {
+		K key = this.partitioner.apply(t);
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		Shard shard = this.shards.get(Math.floorMod(hash, this.shards.size()));
+		shard.dispatcher.execute(() -> shard.process(key, t));
+	}
+
+
+	/**
+	 * Sets the time after which an idle partition is evicted, closing its
+	 * detector and discarding the transactions it could not score yet.
+	 * Idle partitions are looked for whenever their shard consumes a transaction,
+	 * and by a sweep queued on every shard once per timeout, hence the partitions
+	 * of an idle shard are evicted at most twice the timeout after their last transaction.
+	 * @param timeout The maximum idle time.
+	 * @param unit The unit of the timeout.
+	 */
+	public synchronized void setIdleTimeout(long timeout, TimeUnit unit) {
+		if(timeout<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.idleTimeout = unit.toNanos(timeout);
+		if(this.sweep!=null) {
+			this.sweep.cancel(false);
+		}
+		if(this.sweeper==null) {
+			this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "pbad-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		this.sweep = this.sweeper.scheduleAtFixedRate(
+			this::sweep, this.idleTimeout, this.idleTimeout, TimeUnit.NANOSECONDS
+		);
+	}
+
+
+	/**
+	 * Sets the maximum number of partitions held by each shard, after which
+	 * the least recently used partition is evicted.
+	 * @param maxPartitions The maximum number of partitions per shard.
+	 */
+	public void setMaxPartitions(int maxPartitions) {
+		if(maxPartitions<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxPartitions = maxPartitions;
+	}
+
+
+	/**
+	 * Returns the number of partitions currently monitored.
+	 * @return the number of live partitions.
+	 */
+	public int getPartitionCount() {
+		return this.partitionCount.get();
+	}
+
+
+	/**
+	 * Returns the number of partitions evicted so far.
+	 * @return the number of evicted partitions.
+	 */
+	public long getEvictedCount() {
+		return this.evictedCount.get();
+	}
+
+
+	/**
+	 * Returns the number of transactions discarded without an event, since they
+	 * belonged to the incomplete block of a partition when it was closed.
+	 * @return the number of discarded transactions.
+	 */
+	public long getDiscardedCount() {
+		return this.discardedCount.get();
+	}
+
+
+	/**
+	 * Register an event listener to every partition, including the future ones.
+	 * @param eventListener The EventListener object.
+	 */
+	public void registerListener(PBADEventListener<A,B,C> eventListener) {
+		this.listeners.add(eventListener);
+		for(Shard shard : this.shards) {
+			shard.dispatcher.execute(() -> shard.forEach(pbad -> pbad.registerListener(eventListener)));
+		}
+	}
+
+
+	/**
+	 * Unregister an event listener previously registered with this detector.
+	 * @param eventListener The EventListener object.
+	 */
+	public void unregisterListener(PBADEventListener<A,B,C> eventListener) {
+		this.listeners.remove(eventListener);
+		for(Shard shard : this.shards) {
+			shard.dispatcher.execute(() -> shard.forEach(pbad -> pbad.unregisterListener(eventListener)));
+		}
+	}
+
+
+	/**
+	 * Stops accepting transactions, while the queued ones are still consumed.
+	 */
+	public synchronized void shutdown() {
+		if(this.sweeper!=null) {
+			this.sweeper.shutdownNow();
+		}
+		for(Shard shard : this.shards) {
+			shard.dispatcher.shutdown();
+		}
+	}
+
+
+	/**
+	 * Waits for the consumption of the queued transactions after a {@link #shutdown()}.
+	 * @param timeout The maximum time to wait for each shard.
+	 * @param unit The unit of the timeout.
+	 * @return true if every queued transaction was consumed, false if the timeout elapsed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		boolean terminated = true;
+		for(Shard shard : this.shards) {
+			terminated &= shard.dispatcher.awaitTermination(timeout, unit);
+		}
+		return terminated;
+	}
+
+
+
+	/**
+	 * Queues the eviction of the idle partitions on every shard, so that
+	 * they are only accessed by the threads of their shards.
+	 */
+	private void sweep() {
+		for(Shard shard : this.shards) {
+			try {
+				shard.dispatcher.execute(() -> shard.evict(System.nanoTime()));
+			} catch (RejectedExecutionException e) {
+				//the shard has been shut down
+			}
+		}
+	}
+
+
+
+	/**
+	 * A single-threaded lane owning the partitions whose key hashes to it.
+	 * Its partitions are only accessed by its own thread.
+	 */
+	private class Shard {
+
+		private final BoundedDispatcher dispatcher;
+
+		/**
+		 * The partitions of the shard, from the least to the most recently used.
+		 */
+		private final LinkedHashMap<K, Partition> partitions;
+
+		private Shard(int capacity, String name) {
+			this.dispatcher = new BoundedDispatcher(capacity, BoundedDispatcher.Policy.BLOCK, name);
+			this.partitions = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		private void process(K key, A t) {
+			long now = System.nanoTime();
+			Partition partition = this.partitions.get(key);
+			if(partition==null) {
+				partition = new Partition(factory.apply(key));
+				for(PBADEventListener<A,B,C> listener : listeners) {
+					partition.detector.registerListener(listener);
+				}
+				this.partitions.put(key, partition);
+				partitionCount.incrementAndGet();
+			}
+			partition.lastSeen = now;
+			partition.detector.accept(t);
+			this.evict(now);
+		}
+
+		private void evict(long now) {
+			//partitions are in access order, hence idle ones are found first
+			Iterator<Map.Entry<K, Partition>> it = this.partitions.entrySet().iterator();
+			while(it.hasNext()) {
+				Partition eldest = it.next().getValue();
+				if(this.partitions.size() > maxPartitions || now - eldest.lastSeen > idleTimeout) {
+					it.remove();
+					partitionCount.decrementAndGet();
+					evictedCount.incrementAndGet();
+					this.close(eldest);
+				}else {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Closes the detector of a partition, once it has been unlinked.
+		 */
+		private void close(Partition partition) {
+			try {
+				discardedCount.addAndGet(partition.detector.close());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void forEach(Consumer<PBAD<A,B,C>> action) {
+			for(Partition partition : this.partitions.values()) {
+				action.accept(partition.detector);
+			}
+		}
+	}
+
+
+
+	/**
+	 * The state of a partition.
+	 */
+	private class Partition {
+
+		private final PBAD<A,B,C> detector;
+		private long lastSeen;
+
+		private Partition(PBAD<A,B,C> detector) {
+			this.detector = detector;
+		}
+	}
+}
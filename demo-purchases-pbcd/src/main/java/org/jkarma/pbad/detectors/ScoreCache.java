@@ -0,0 +1,208 @@
+package org.jkarma.pbad.detectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jkarma.model.Transaction;
+import org.jkarma.pbad.model.EncodedTransaction;
+import org.jkarma.pbad.model.ItemDictionary;
+
+/**
+ * Bounded memo of the anomaly scores of the itemsets seen within the same version
+ * of the lattice, so that transactions repeating the items of a previous one are
+ * scored in constant time. Entries are direct-mapped on the hash of the canonical
+ * itemset, a new entry evicting the one in its slot, and are tagged with the version
+ * of the lattice they were computed against: a new lattice invalidates them all
+ * without clearing the slots. Looking a score up never locks, and can be performed
+ * by several threads at once.
+ * @param <B> the type of items.
+ */
+public class ScoreCache<B> {
+
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+
+
+	/**
+	 * @param capacity The maximum number of itemsets, rounded up to a power of two.
+	 */
+	public ScoreCache(int capacity) {
+		if(capacity<=0 || capacity>(1 << 30)) {
+			throw new IllegalArgumentException();
+		}
+		int slots = Integer.highestOneBit(capacity);
+		if(slots < capacity) {
+			slots <<= 1;
+		}
+		this.entries = new AtomicReferenceArray<>(slots);
+		this.mask = slots - 1;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+
+	/**
+	 * Returns the canonical itemset of a transaction. Encoded transactions are keyed
+	 * by the bitset of their items, the others by their sorted items.
+	 * @param t The transaction.
+	 * @return the key of the transaction.
+	 */
+	static <B extends Comparable<B>> Key keyOf(Transaction<B> t) {
+		if(t instanceof EncodedTransaction) {
+			EncodedTransaction<B> et = (EncodedTransaction<B>)t;
+			return new Key(et.getDictionary(), et.getItemBits(), null, t.getItems().size());
+		}
+		List<B> items = new ArrayList<>(t.getItems());
+		Collections.sort(items);
+		return new Key(null, null, items, items.size());
+	}
+
+
+	/**
+	 * Looks up the scores of an itemset.
+	 * @param key The canonical itemset.
+	 * @param version The version of the lattice the scores must be computed against.
+	 * @return the cached entry, or null if the itemset was not scored against that version.
+	 */
+	Entry get(Key key, long version) {
+		Entry entry = this.entries.get(key.hash & this.mask);
+		if(entry!=null && entry.version==version && entry.key.equals(key)) {
+			this.hits.increment();
+			return entry;
+		}
+		this.misses.increment();
+		return null;
+	}
+
+
+	/**
+	 * Stores the scores of an itemset, evicting the itemset in the same slot.
+	 * @param key The canonical itemset.
+	 * @param version The version of the lattice the scores were computed against.
+	 * @param score The anomaly score.
+	 * @param scores The vector of scores, or null if the score is not composite.
+	 */
+	void put(Key key, long version, double score, double[] scores) {
+		this.entries.set(key.hash & this.mask, new Entry(key, version, score, scores));
+	}
+
+
+	public int getCapacity() {
+		return this.entries.length();
+	}
+
+
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+
+	/**
+	 * Returns the fraction of the lookups answered by the cache.
+	 * @return the hit ratio, or zero if nothing was looked up.
+	 */
+	public double getHitRatio() {
+		long hits = this.hits.sum();
+		long total = hits + this.misses.sum();
+		return (total == 0) ? 0 : (double)hits / total;
+	}
+
+
+	/**
+	 * Returns a summary of the statistics of the cache.
+	 */
+	@Override
+	public String toString() {
+		return String.format("capacity=%d, hits=%d, misses=%d, ratio=%.3f",
+			this.getCapacity(), this.getHits(), this.getMisses(), this.getHitRatio());
+	}
+
+
+
+	/**
+	 * The canonical itemset of a transaction, along with its number of items,
+	 * which the scores are normalized by.
+	 */
+	static final class Key {
+
+		private final ItemDictionary<?> dictionary;
+		private final long[] bits;
+		private final List<?> items;
+		private final int length;
+		private final int hash;
+
+		private Key(ItemDictionary<?> dictionary, long[] bits, List<?> items, int length) {
+			this.dictionary = dictionary;
+			this.bits = bits;
+			this.items = items;
+			this.length = length;
+			int h = (bits!=null) ? Arrays.hashCode(bits) : items.hashCode();
+			h = 31 * h + length;
+			//the bits are spread, since only the lowest ones select the slot
+			this.hash = h ^ (h >>> 16);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)o;
+			return this.hash==other.hash && this.length==other.length &&
+				this.dictionary==other.dictionary &&
+				Arrays.equals(this.bits, other.bits) && Objects.equals(this.items, other.items);
+		}
+	}
+
+
+
+	/**
+	 * The scores of an itemset against a version of the lattice.
+	 */
+	static final class Entry {
+
+		private final Key key;
+		private final long version;
+		private final double score;
+		private final double[] scores;
+
+		private Entry(Key key, long version, double score, double[] scores) {
+			this.key = key;
+			this.version = version;
+			this.score = score;
+			this.scores = scores;
+		}
+
+		double getScore() {
+			return this.score;
+		}
+
+		/**
+		 * Returns a copy of the vector of scores, since every event carries its own.
+		 */
+		double[] getScores() {
+			return (this.scores!=null) ? this.scores.clone() : null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.jkarma.pbad.detectors;
+
+/**
+ * Fixed-capacity ring buffer of the transactions waiting to be scored, along
+ * with their arrival time. Slots are allocated once and reused for every block,
+ * hence buffering a transaction never allocates. A full buffer rejects new
+ * transactions, since every buffered transaction must be scored.
+ * @param <A> the type of transactions.
+ */
+class TransactionBuffer<A> {
+
+	private final Object[] transactions;
+	private final long[] arrivals;
+	private int head;
+	private int size;
+
+
+
+	TransactionBuffer(int capacity) {
+		if(capacity<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.transactions = new Object[capacity];
+		this.arrivals = new long[capacity];
+	}
+
+
+	/**
+	 * Appends a transaction to the buffer.
+	 * @param t The transaction.
+	 * @param arrival The arrival time of the transaction, in nanoseconds.
+	 * @throws IllegalStateException if the buffer is full.
+	 */
+	void add(A t, long arrival) {
+		if(this.size == this.transactions.length) {
+			throw new IllegalStateException("The buffer is full");
+		}
+		int slot = this.index(this.size);
+		this.size++;
+		this.transactions[slot] = t;
+		this.arrivals[slot] = arrival;
+	}
+
+
+	/**
+	 * Returns the i-th oldest transaction in the buffer.
+	 */
+	@SuppressWarnings("unchecked")
+	A get(int i) {
+		return (A)this.transactions[this.index(i)];
+	}
+
+
+	/**
+	 * Returns the arrival time of the i-th oldest transaction in the buffer.
+	 */
+	long getArrival(int i) {
+		return this.arrivals[this.index(i)];
+	}
+
+
+	int size() {
+		return this.size;
+	}
+
+
+	int capacity() {
+		return this.transactions.length;
+	}
+
+
+	/**
+	 * Empties the buffer, releasing the references to the transactions.
+	 */
+	void clear() {
+		for(int i=0; i<this.size; i++) {
+			this.transactions[this.index(i)] = null;
+		}
+		this.head = 0;
+		this.size = 0;
+	}
+
+
+	private int index(int i) {
+		int index = this.head + i;
+		return (index < this.transactions.length) ? index : index - this.transactions.length;
+	}
+}
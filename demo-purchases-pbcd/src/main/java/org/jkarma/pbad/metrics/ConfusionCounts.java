@@ -0,0 +1,92 @@
+package org.jkarma.pbad.metrics;
+
+/**
+ * Immutable counts of the outcomes of a binary detector, where anomalies are
+ * the positive class, along with the measures derived from them.
+ * Measures whose denominator is zero are reported as zero.
+ */
+public class ConfusionCounts {
+
+	private final long truePositives;
+	private final long falsePositives;
+	private final long falseNegatives;
+	private final long trueNegatives;
+
+
+
+	public ConfusionCounts(long truePositives, long falsePositives, long falseNegatives, long trueNegatives) {
+		this.truePositives = truePositives;
+		this.falsePositives = falsePositives;
+		this.falseNegatives = falseNegatives;
+		this.trueNegatives = trueNegatives;
+	}
+
+
+	public long getTruePositives() {
+		return this.truePositives;
+	}
+
+
+	public long getFalsePositives() {
+		return this.falsePositives;
+	}
+
+
+	public long getFalseNegatives() {
+		return this.falseNegatives;
+	}
+
+
+	public long getTrueNegatives() {
+		return this.trueNegatives;
+	}
+
+
+	public long getCount() {
+		return this.truePositives + this.falsePositives + this.falseNegatives + this.trueNegatives;
+	}
+
+
+	/**
+	 * Returns the fraction of actual anomalies among the detected ones.
+	 */
+	public double getPrecision() {
+		return ratio(this.truePositives, this.truePositives + this.falsePositives);
+	}
+
+
+	/**
+	 * Returns the fraction of detected anomalies among the actual ones.
+	 */
+	public double getRecall() {
+		return ratio(this.truePositives, this.truePositives + this.falseNegatives);
+	}
+
+
+	/**
+	 * Returns the harmonic mean of precision and recall.
+	 */
+	public double getF1() {
+		return ratio(2 * this.truePositives, 2 * this.truePositives + this.falsePositives + this.falseNegatives);
+	}
+
+
+	public double getAccuracy() {
+		return ratio(this.truePositives + this.trueNegatives, this.getCount());
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format(
+			"count=%d, tp=%d, fp=%d, fn=%d, tn=%d, precision=%.4f, recall=%.4f, f1=%.4f, accuracy=%.4f",
+			this.getCount(), this.truePositives, this.falsePositives, this.falseNegatives, this.trueNegatives,
+			this.getPrecision(), this.getRecall(), this.getF1(), this.getAccuracy()
+		);
+	}
+
+
+	private static double ratio(long num, long den) {
+		return (den == 0) ? 0 : (double)num / den;
+	}
+}
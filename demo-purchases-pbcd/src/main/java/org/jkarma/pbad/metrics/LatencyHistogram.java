@@ -0,0 +1,150 @@
+package org.jkarma.pbad.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies expressed in nanoseconds, with log-linear buckets.
+ * Values below 32 have their own bucket, while larger values fall in one of
+ * 32 buckets for each power of two, so that every recorded value is known
+ * with a relative error below 1/32. Recording a value neither allocates nor
+ * locks, and can be performed by several threads at once.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits of the sub-buckets of each power of two.
+	 */
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+
+
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+
+	/**
+	 * Records a latency.
+	 * @param nanos The latency in nanoseconds, negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		this.counts.incrementAndGet(indexOf(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+
+		long current = this.max.get();
+		while(value > current && !this.max.compareAndSet(current, value)) {
+			current = this.max.get();
+		}
+	}
+
+
+	/**
+	 * Returns the latency below which a given fraction of the recorded latencies fall.
+	 * The value is the upper bound of the bucket containing the percentile.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return the latency in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException();
+		}
+		long total = this.count.get();
+		if(total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for(int i=0; i<BUCKET_COUNT; i++) {
+			seen+=this.counts.get(i);
+			if(seen >= rank) {
+				return Math.min(upperBoundOf(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+
+	public double getMean() {
+		long total = this.count.get();
+		return (total == 0) ? 0 : (double)this.sum.get() / total;
+	}
+
+
+	/**
+	 * Clears all the recorded latencies.
+	 */
+	public void reset() {
+		for(int i=0; i<BUCKET_COUNT; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+
+	/**
+	 * Returns a summary of the histogram, with latencies in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+			"count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, max=%.3fms",
+			this.getCount(), this.getMean() / TimeUnit.MILLISECONDS.toNanos(1),
+			toMillis(this.getPercentile(50)), toMillis(this.getPercentile(90)),
+			toMillis(this.getPercentile(99)), toMillis(this.getPercentile(99.9)),
+			toMillis(this.getMax())
+		);
+	}
+
+
+	private static double toMillis(long nanos) {
+		return (double)nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+
+	private static int indexOf(long value) {
+		if(value < SUB_COUNT) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+
+	private static long upperBoundOf(int index) {
+		if(index < SUB_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		long lower = (SUB_COUNT + sub) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
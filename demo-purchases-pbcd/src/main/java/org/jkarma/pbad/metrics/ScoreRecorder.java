@@ -0,0 +1,66 @@
+package org.jkarma.pbad.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Records the raw anomaly score of each example along with its actual label, so
+ * that the detector can be evaluated for every threshold after a single run.
+ * The scores of anomalies and normal examples are kept apart in growable arrays
+ * of primitives. Examples can be recorded by several threads at once.
+ */
+public class ScoreRecorder {
+
+	private double[] anomalies;
+	private double[] normals;
+	private int anomalyCount;
+	private int normalCount;
+
+
+
+	public ScoreRecorder() {
+		this.anomalies = new double[64];
+		this.normals = new double[1024];
+	}
+
+
+	/**
+	 * Records the score of an example.
+	 * @param score The exact anomaly score of the example.
+	 * @param actual Whether the example is actually an anomaly.
+	 */
+	public synchronized void record(double score, boolean actual) {
+		if(actual) {
+			if(this.anomalyCount == this.anomalies.length) {
+				this.anomalies = Arrays.copyOf(this.anomalies, 2 * this.anomalies.length);
+			}
+			this.anomalies[this.anomalyCount++] = score;
+		}else {
+			if(this.normalCount == this.normals.length) {
+				this.normals = Arrays.copyOf(this.normals, 2 * this.normals.length);
+			}
+			this.normals[this.normalCount++] = score;
+		}
+	}
+
+
+	public synchronized int getCount() {
+		return this.anomalyCount + this.normalCount;
+	}
+
+
+	/**
+	 * Evaluates the recorded scores for every threshold, by sorting them once.
+	 * @return the curve of the outcomes over all the thresholds.
+	 */
+	public ThresholdCurve getCurve() {
+		double[] positives;
+		double[] negatives;
+		synchronized(this) {
+			positives = Arrays.copyOf(this.anomalies, this.anomalyCount);
+			negatives = Arrays.copyOf(this.normals, this.normalCount);
+		}
+		Arrays.sort(positives);
+		Arrays.sort(negatives);
+		return new ThresholdCurve(positives, negatives);
+	}
+}
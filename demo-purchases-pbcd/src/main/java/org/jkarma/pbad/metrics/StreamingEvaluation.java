@@ -0,0 +1,97 @@
+package org.jkarma.pbad.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prequential evaluation of a binary detector, updated one prediction at a time.
+ * Both the counts of all the predictions and the counts of the latest ones, over a
+ * sliding window, are kept, so that the memory needed does not depend on the length
+ * of the stream. Predictions can be recorded by several threads at once without
+ * locking, in which case the counts read while recording are eventually consistent.
+ */
+public class StreamingEvaluation {
+
+	/**
+	 * The outcomes, indexed by (predicted ? 2 : 0) + (actual ? 1 : 0).
+	 */
+	private static final int TN = 0, FN = 1, FP = 2, TP = 3;
+
+	private final LongAdder[] totals;
+
+	/**
+	 * The outcome of each prediction in the window, plus one, or zero for empty slots.
+	 */
+	private final AtomicIntegerArray window;
+	private final AtomicLongArray windowCounts;
+	private final AtomicLong sequence;
+
+
+
+	/**
+	 * Instantiate an evaluation.
+	 * @param windowSize The number of latest predictions in the sliding window,
+	 * for instance the block size for per-block measures.
+	 */
+	public StreamingEvaluation(int windowSize) {
+		if(windowSize<=0) {
+			throw new IllegalArgumentException();
+		}
+		this.totals = new LongAdder[4];
+		for(int i=0; i<this.totals.length; i++) {
+			this.totals[i] = new LongAdder();
+		}
+		this.window = new AtomicIntegerArray(windowSize);
+		this.windowCounts = new AtomicLongArray(4);
+		this.sequence = new AtomicLong();
+	}
+
+
+	/**
+	 * Records a prediction.
+	 * @param predicted Whether the example was detected as an anomaly.
+	 * @param actual Whether the example is actually an anomaly.
+	 */
+	public void record(boolean predicted, boolean actual) {
+		int outcome = (predicted ? 2 : 0) + (actual ? 1 : 0);
+		this.totals[outcome].increment();
+
+		//the new outcome replaces the oldest one in the window
+		long n = this.sequence.getAndIncrement();
+		int old = this.window.getAndSet((int)(n % this.window.length()), outcome + 1);
+		if(old > 0) {
+			this.windowCounts.decrementAndGet(old - 1);
+		}
+		this.windowCounts.incrementAndGet(outcome);
+	}
+
+
+	/**
+	 * Returns the counts of all the recorded predictions.
+	 * @return the cumulative confusion counts.
+	 */
+	public ConfusionCounts getTotal() {
+		return new ConfusionCounts(
+			this.totals[TP].sum(), this.totals[FP].sum(), this.totals[FN].sum(), this.totals[TN].sum()
+		);
+	}
+
+
+	/**
+	 * Returns the counts of the latest predictions, within the sliding window.
+	 * @return the confusion counts of the window.
+	 */
+	public ConfusionCounts getWindow() {
+		return new ConfusionCounts(
+			this.windowCounts.get(TP), this.windowCounts.get(FP),
+			this.windowCounts.get(FN), this.windowCounts.get(TN)
+		);
+	}
+
+
+	public int getWindowSize() {
+		return this.window.length();
+	}
+}
@@ -0,0 +1,198 @@
+package org.jkarma.pbad.metrics;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Immutable outcomes of a binary detector for every threshold on its anomaly scores,
+ * where an example is detected as an anomaly when its score is lower than or equal
+ * to the threshold. There is one point for each distinct recorded score, in ascending
+ * order, from which the ROC and the precision-recall curves are derived.
+ * Examples whose score is NaN are never detected.
+ */
+public class ThresholdCurve {
+
+	private final double[] thresholds;
+	private final long[] truePositives;
+	private final long[] falsePositives;
+	private final long positives;
+	private final long negatives;
+
+
+
+	/**
+	 * Sweeps the sorted scores once, merging them.
+	 * @param positives The sorted scores of the anomalies.
+	 * @param negatives The sorted scores of the normal examples.
+	 */
+	ThresholdCurve(double[] positives, double[] negatives) {
+		if(positives==null || negatives==null) {
+			throw new IllegalArgumentException();
+		}
+		this.positives = positives.length;
+		this.negatives = negatives.length;
+
+		double[] thresholds = new double[positives.length + negatives.length];
+		long[] tp = new long[thresholds.length];
+		long[] fp = new long[thresholds.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while(true) {
+			//the next threshold is the lowest score not yet below the previous one
+			double threshold;
+			if(i < positives.length && !Double.isNaN(positives[i])) {
+				threshold = positives[i];
+				if(j < negatives.length && negatives[j] < threshold) {
+					threshold = negatives[j];
+				}
+			}else if(j < negatives.length && !Double.isNaN(negatives[j])) {
+				threshold = negatives[j];
+			}else {
+				break;
+			}
+			while(i < positives.length && positives[i] <= threshold) {
+				i++;
+			}
+			while(j < negatives.length && negatives[j] <= threshold) {
+				j++;
+			}
+			thresholds[n] = threshold;
+			tp[n] = i;
+			fp[n] = j;
+			n++;
+		}
+
+		this.thresholds = Arrays.copyOf(thresholds, n);
+		this.truePositives = Arrays.copyOf(tp, n);
+		this.falsePositives = Arrays.copyOf(fp, n);
+	}
+
+
+	/**
+	 * Returns the number of points of the curve.
+	 * @return the number of distinct scores.
+	 */
+	public int size() {
+		return this.thresholds.length;
+	}
+
+
+	public double getThreshold(int i) {
+		return this.thresholds[i];
+	}
+
+
+	/**
+	 * Returns the outcomes at a point of the curve.
+	 * @param i The index of the point.
+	 * @return the confusion counts when the threshold is the i-th distinct score.
+	 */
+	public ConfusionCounts getCounts(int i) {
+		return new ConfusionCounts(
+			this.truePositives[i], this.falsePositives[i],
+			this.positives - this.truePositives[i], this.negatives - this.falsePositives[i]
+		);
+	}
+
+
+	/**
+	 * Returns the outcomes for any threshold, as if the detector was run with it.
+	 * @param threshold The threshold below which an example is an anomaly.
+	 * @return the confusion counts for the threshold.
+	 */
+	public ConfusionCounts getCounts(double threshold) {
+		//we look for the last point not above the threshold
+		int low = 0;
+		int high = this.thresholds.length - 1;
+		int found = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(this.thresholds[mid] <= threshold) {
+				found = mid;
+				low = mid + 1;
+			}else {
+				high = mid - 1;
+			}
+		}
+		if(found < 0) {
+			return new ConfusionCounts(0, 0, this.positives, this.negatives);
+		}
+		return this.getCounts(found);
+	}
+
+
+	/**
+	 * Returns the area under the ROC curve, by the trapezoidal rule.
+	 * @return the area, or zero if either class has no example.
+	 */
+	public double getRocAuc() {
+		if(this.positives == 0 || this.negatives == 0) {
+			return 0;
+		}
+		double area = 0;
+		double previousTpr = 0;
+		double previousFpr = 0;
+		for(int i=0; i<this.thresholds.length; i++) {
+			double tpr = (double)this.truePositives[i] / this.positives;
+			double fpr = (double)this.falsePositives[i] / this.negatives;
+			area+=(fpr - previousFpr) * (tpr + previousTpr) / 2;
+			previousTpr = tpr;
+			previousFpr = fpr;
+		}
+		return area;
+	}
+
+
+	/**
+	 * Returns the average precision, that is the precisions at each point weighted
+	 * by the increase of the recall from the previous point.
+	 * @return the average precision, or zero if there is no anomaly.
+	 */
+	public double getAveragePrecision() {
+		double sum = 0;
+		double previousRecall = 0;
+		for(int i=0; i<this.thresholds.length; i++) {
+			ConfusionCounts counts = this.getCounts(i);
+			sum+=(counts.getRecall() - previousRecall) * counts.getPrecision();
+			previousRecall = counts.getRecall();
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Returns the threshold maximizing the F1 score, the lowest one in case of ties.
+	 * @return the best threshold, or NaN if there are no points.
+	 */
+	public double getBestThreshold() {
+		double best = Double.NaN;
+		double bestF1 = -1;
+		for(int i=0; i<this.thresholds.length; i++) {
+			double f1 = this.getCounts(i).getF1();
+			if(f1 > bestF1) {
+				bestF1 = f1;
+				best = this.thresholds[i];
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Writes the points of the curve as comma-separated values, with a header.
+	 * @param out The stream the points are written to.
+	 */
+	public void write(PrintStream out) {
+		out.println("threshold,tp,fp,fn,tn,fpr,tpr,precision,f1");
+		for(int i=0; i<this.thresholds.length; i++) {
+			ConfusionCounts counts = this.getCounts(i);
+			double fpr = (this.negatives > 0) ? (double)this.falsePositives[i] / this.negatives : 0;
+			out.println(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.6f,%.6f,%.6f,%.6f",
+				this.thresholds[i], counts.getTruePositives(), counts.getFalsePositives(),
+				counts.getFalseNegatives(), counts.getTrueNegatives(),
+				fpr, counts.getRecall(), counts.getPrecision(), counts.getF1()));
+		}
+	}
+}
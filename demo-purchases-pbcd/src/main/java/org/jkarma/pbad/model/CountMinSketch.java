@@ -0,0 +1,94 @@
+package org.jkarma.pbad.model;
+
+import java.util.Collection;
+
+/**
+ * Count-min sketch of the frequencies of the items in a stream of transactions.
+ * Each item increments one counter in each row of the sketch, chosen by a hash
+ * of the item, and its frequency is estimated by the smallest of its counters.
+ * Estimates never fall below the actual frequency, and exceed it by more than
+ * e/width times the number of counted items with probability below e^-depth.
+ * Items are added by a single thread, while a sketch no longer updated can be
+ * read by several threads at once.
+ * @param <B> the type of items.
+ */
+public class CountMinSketch<B> {
+
+	private final int[][] counters;
+	private final int mask;
+	private int transactions;
+
+
+
+	/**
+	 * @param width The number of counters of each row, rounded up to a power of two.
+	 * @param depth The number of rows.
+	 */
+	public CountMinSketch(int width, int depth) {
+		if(width<=0 || width>(1 << 30) || depth<=0) {
+			throw new IllegalArgumentException();
+		}
+		int columns = Integer.highestOneBit(width);
+		if(columns < width) {
+			columns <<= 1;
+		}
+		this.counters = new int[depth][columns];
+		this.mask = columns - 1;
+	}
+
+
+	/**
+	 * Counts the items of a transaction.
+	 * @param items The items of the transaction.
+	 */
+	public void add(Collection<B> items) {
+		for(B item : items) {
+			long hash = mix(item.hashCode());
+			int h1 = (int)hash;
+			int h2 = (int)(hash >>> 32) | 1;
+			for(int j=0; j<this.counters.length; j++) {
+				this.counters[j][(h1 + j * h2) & this.mask]++;
+			}
+		}
+		this.transactions++;
+	}
+
+
+	/**
+	 * Estimates the number of transactions containing an item.
+	 * @param item The item.
+	 * @return the estimated frequency, never lower than the actual one.
+	 */
+	public int estimate(B item) {
+		long hash = mix(item.hashCode());
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32) | 1;
+		int min = Integer.MAX_VALUE;
+		for(int j=0; j<this.counters.length; j++) {
+			min = Math.min(min, this.counters[j][(h1 + j * h2) & this.mask]);
+		}
+		return min;
+	}
+
+
+	/**
+	 * Returns the number of counted transactions.
+	 */
+	public int getTransactionCount() {
+		return this.transactions;
+	}
+
+
+	/**
+	 * Spreads the hash code of an item over 64 bits, from which the counter
+	 * of each row is derived by double hashing.
+	 */
+	private static long mix(int hashCode) {
+		long h = hashCode * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+}
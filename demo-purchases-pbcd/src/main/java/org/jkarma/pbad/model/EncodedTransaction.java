@@ -0,0 +1,27 @@
+package org.jkarma.pbad.model;
+
+import org.jkarma.model.Transaction;
+
+/**
+ * A transaction whose items are also available as a bitset of ids
+ * assigned by an {@link ItemDictionary}. Anomaly scores test pattern
+ * containment on the bitset with word-wise AND operations, instead of
+ * comparing the items one by one.
+ * @param <B> the type of items.
+ */
+public interface EncodedTransaction<B> extends Transaction<B> {
+
+	/**
+	 * Returns the dictionary that encoded the items of this transaction.
+	 * @return the item dictionary.
+	 */
+	public ItemDictionary<B> getDictionary();
+
+	/**
+	 * Returns the items of this transaction as the words of a bitset.
+	 * The returned array is shared and must not be modified.
+	 * @return the words of the bitset.
+	 */
+	public long[] getItemBits();
+
+}
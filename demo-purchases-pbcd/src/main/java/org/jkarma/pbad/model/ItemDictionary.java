@@ -0,0 +1,113 @@
+package org.jkarma.pbad.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary mapping each distinct item to a dense integer id.
+ * Ids are assigned in order of first appearance, starting from zero,
+ * so that a set of items can be represented as a bitset.
+ * The dictionary is safe to be shared among threads.
+ * @param <B> the type of items.
+ */
+public class ItemDictionary<B> {
+
+	/**
+	 * The id assigned to each item.
+	 */
+	private final ConcurrentHashMap<B, Integer> ids;
+
+	/**
+	 * The items, indexed by their id.
+	 */
+	private final List<B> items;
+
+
+
+	public ItemDictionary() {
+		this.ids = new ConcurrentHashMap<>();
+		this.items = new ArrayList<>();
+	}
+
+
+	/**
+	 * Returns the id of an item, assigning a new one if the item was never seen.
+	 * @param item The item to be encoded.
+	 * @return the id of the item.
+	 */
+	public int encode(B item) {
+		if(item==null) {
+			throw new IllegalArgumentException();
+		}
+		Integer id = this.ids.get(item);
+		if(id==null) {
+			synchronized(this.items) {
+				id = this.ids.get(item);
+				if(id==null) {
+					id = this.items.size();
+					this.items.add(item);
+					this.ids.put(item, id);
+				}
+			}
+		}
+		return id;
+	}
+
+
+	/**
+	 * Encodes a collection of items as a bitset, where the bit at position i
+	 * is set if and only if the item with id i belongs to the collection.
+	 * @param items The items to be encoded.
+	 * @return the words of the bitset.
+	 */
+	public long[] encode(Collection<B> items) {
+		int[] itemIds = new int[items.size()];
+		int maxId = -1;
+		int i = 0;
+		for(B item : items) {
+			itemIds[i] = this.encode(item);
+			maxId = Math.max(maxId, itemIds[i]);
+			i++;
+		}
+
+		long[] bits = new long[(maxId < 0) ? 0 : (maxId >>> 6) + 1];
+		for(int id : itemIds) {
+			bits[id >>> 6] |= 1L << id;
+		}
+		return bits;
+	}
+
+
+	/**
+	 * Returns the id of an item without assigning a new one.
+	 * @param item The item to be looked up.
+	 * @return the id of the item, or -1 if the item was never seen.
+	 */
+	public int lookup(B item) {
+		Integer id = this.ids.get(item);
+		return (id==null) ? -1 : id;
+	}
+
+
+	/**
+	 * Returns the item associated to an id.
+	 * @param id The id of the item.
+	 * @return the item.
+	 */
+	public B decode(int id) {
+		synchronized(this.items) {
+			return this.items.get(id);
+		}
+	}
+
+
+	/**
+	 * Returns the number of distinct items seen so far.
+	 * @return the size of the dictionary.
+	 */
+	public int size() {
+		return this.ids.size();
+	}
+}
@@ -0,0 +1,204 @@
+package org.jkarma.pbad.detectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.heuristics.AreaHeuristic;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.mining.providers.TidSetProvider;
+import org.jkarma.mining.structures.MiningStrategy;
+import org.jkarma.mining.structures.Strategies;
+import org.jkarma.mining.windows.Windows;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.model.ItemDictionary;
+import org.jkarma.pbcd.descriptors.Descriptors;
+import org.jkarma.pbcd.detectors.Detectors;
+import org.jkarma.pbcd.detectors.PBCD;
+import org.jkarma.pbcd.events.ChangeDetectedEvent;
+import org.jkarma.pbcd.events.ChangeNotDetectedEvent;
+import org.jkarma.pbcd.patterns.Patterns;
+import org.jkarma.pbcd.similarities.UnweightedJaccard;
+import org.junit.Test;
+
+public class PBADTest {
+
+	static final float MIN_SUP = 0.15f;
+	private static final int BLOCKS = 5;
+
+
+
+	/**
+	 * Blocks of 10 transactions split over 7 workers leave the last ones without
+	 * a chunk, which must not prevent the others from scoring theirs.
+	 */
+	@Test
+	public void batchScoringWithIdleWorkers() throws InterruptedException {
+		assertEquals((BLOCKS - 1) * 10, this.countEvents(10, 7, true));
+	}
+
+
+	@Test
+	public void scoringWithIdleWorkers() throws InterruptedException {
+		assertEquals((BLOCKS - 1) * 10, this.countEvents(10, 7, false));
+	}
+
+
+	@Test
+	public void batchScoringWithMoreWorkersThanTransactions() throws InterruptedException {
+		assertEquals((BLOCKS - 1) * 3, this.countEvents(3, 8, true));
+	}
+
+
+	/**
+	 * The scoring stage posts the changes and the verdicts in the same order
+	 * as the thread consuming the stream, and from a single thread.
+	 */
+	@Test
+	public void pipelineKeepsTheOrderOfEvents() throws InterruptedException {
+		List<Transazione> purchases = purchases(BLOCKS * 10);
+
+		PBAD<Transazione,String,TidSet> direct = new PBAD<>(getPBCD(10), new FPOFAnomaly<>(MIN_SUP), 0.05);
+		Recorder expected = new Recorder();
+		direct.registerListener(expected);
+		purchases.forEach(direct);
+
+		PBAD<Transazione,String,TidSet> pipelined = new PBAD<>(getPBCD(10), new FPOFAnomaly<>(MIN_SUP), 0.05);
+		pipelined.setPipeline(2);
+		Recorder actual = new Recorder();
+		pipelined.registerListener(actual);
+		purchases.forEach(pipelined);
+		pipelined.flush();
+
+		assertEquals(expected.events, actual.events);
+		assertEquals(1, actual.threads.size());
+		assertEquals(0, pipelined.close());
+	}
+
+
+	/**
+	 * A block failing on the scoring stage is reported by the next flush.
+	 */
+	@Test
+	public void pipelineFailureSurfacesAtFlush() throws InterruptedException {
+		PBAD<Transazione,String,TidSet> pbad = new PBAD<>(getPBCD(10), lattice -> t -> {
+			throw new UnsupportedOperationException("unscorable");
+		}, 0.05);
+		pbad.setPipeline(2);
+
+		//the first scored block is handed to the stage by the last transaction
+		purchases(2 * 10).forEach(pbad);
+		try {
+			pbad.flush();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("unscorable", e.getCause().getMessage());
+		}
+	}
+
+
+
+	/**
+	 * Streams a few blocks of purchases and counts the transactions that
+	 * were scored, every one but those of the first block.
+	 */
+	private int countEvents(int blockSize, int parallelism, boolean batch) throws InterruptedException {
+		PBCD<Transazione,String,TidSet,Boolean> pbcd = getPBCD(blockSize);
+		PBAD<Transazione,String,TidSet> pbad = new PBAD<>(pbcd, new FPOFAnomaly<>(MIN_SUP), 0.05);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		pbad.setExecutor(pool);
+		pbad.setBatchScoring(batch);
+
+		Recorder recorder = new Recorder();
+		pbad.registerListener(recorder);
+		purchases(BLOCKS * blockSize).forEach(pbad);
+		pbad.flush();
+		pool.shutdown();
+		return recorder.getVerdictCount();
+	}
+
+
+	/**
+	 * Generates purchases over a few products, sharing a dictionary.
+	 */
+	static List<Transazione> purchases(int count) {
+		ItemDictionary<String> dictionary = new ItemDictionary<>();
+		String[] products = {"a", "b", "c", "d", "e", "f"};
+		List<Transazione> purchases = new ArrayList<>(count);
+		for(int i=0; i<count; i++) {
+			String[] fields = {
+				Integer.toString(i), "card" + (i % 4),
+				products[i % 3], products[3 + i % 2], products[(i * 7) % 6],
+				(i % 11 == 0) ? "TRUE" : "FALSE"
+			};
+			purchases.add(new Transazione(fields, dictionary));
+		}
+		return purchases;
+	}
+
+
+	static PBCD<Transazione,String,TidSet,Boolean> getPBCD(int blockSize){
+		TidSetProvider<String> accessor = new TidSetProvider<>(Windows.blockwiseSliding());
+		MiningStrategy<String,TidSet> strategy = Strategies
+			.uponItemsets(new HashSet<String>())
+			.limitDepth(4).eclat(MIN_SUP)
+			.beam(accessor, new AreaHeuristic<String,TidSet>(), 20);
+		return Detectors.upon(strategy)
+			.unweighted((p,t) -> Patterns.isFrequent(p,MIN_SUP,t), new UnweightedJaccard())
+			.describe(Descriptors.partialEps(MIN_SUP, 1.00))
+			.build(0.9f, blockSize);
+	}
+
+
+
+	/**
+	 * Listener recording the events it receives, in order, along with the
+	 * threads delivering them.
+	 */
+	static class Recorder implements PBADEventListener<Transazione,String,TidSet> {
+
+		final List<String> events = new ArrayList<>();
+		final Set<String> threads = new HashSet<>();
+
+		private synchronized void record(String event) {
+			this.events.add(event);
+			this.threads.add(Thread.currentThread().getName());
+		}
+
+		synchronized int getVerdictCount() {
+			int count = 0;
+			for(String event : this.events) {
+				if(!event.startsWith("change")) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void anomalyDetected(AnomalyDetectedEvent<Transazione,String> event) {
+			this.record("anomaly " + event.getTransaction().getId());
+		}
+
+		@Override
+		public void anomalyNotDetected(AnomalyNotDetectedEvent<Transazione,String> event) {
+			this.record("normal " + event.getTransaction().getId());
+		}
+
+		@Override
+		public void changeDetected(ChangeDetectedEvent<String,TidSet> event) {
+			this.record("change " + event.getAmount());
+		}
+
+		@Override
+		public void changeNotDetected(ChangeNotDetectedEvent<String,TidSet> event) {
+			this.record("change " + event.getAmount());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.jkarma.pbad.detectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jkarma.examples.purchases.model.Transazione;
+import org.jkarma.mining.joiners.TidSet;
+import org.jkarma.pbad.anomalies.FPOFAnomaly;
+import org.jkarma.pbad.model.ItemDictionary;
+import org.junit.Test;
+
+public class PartitionedPBADTest {
+
+	/**
+	 * Each card is scored by its own detector, in the arrival order of its purchases.
+	 */
+	@Test
+	public void partitionsKeepTheirOrder() throws InterruptedException {
+		PartitionedPBAD<Transazione,String,TidSet,String> pbad = newDetector(3, 3, null);
+		Map<String, List<Integer>> verdicts = new HashMap<>();
+		pbad.registerListener(new PBADTest.Recorder() {
+
+			@Override
+			public void anomalyDetected(AnomalyDetectedEvent<Transazione,String> event) {
+				this.record(event);
+			}
+
+			@Override
+			public void anomalyNotDetected(AnomalyNotDetectedEvent<Transazione,String> event) {
+				this.record(event);
+			}
+
+			private void record(PBADEvent<Transazione,String> event) {
+				Transazione t = event.getTransaction();
+				synchronized(verdicts) {
+					verdicts.computeIfAbsent(t.getCardId(), card -> new ArrayList<>()).add(t.getId());
+				}
+			}
+		});
+
+		//four cards of 15 purchases each, that is 5 blocks, the first one of which is not scored
+		PBADTest.purchases(60).forEach(pbad);
+		pbad.shutdown();
+		assertTrue(pbad.awaitTermination(1, TimeUnit.MINUTES));
+
+		assertEquals(4, verdicts.size());
+		for(Map.Entry<String, List<Integer>> card : verdicts.entrySet()) {
+			List<Integer> ids = card.getValue();
+			assertEquals(12, ids.size());
+			for(int i=1; i<ids.size(); i++) {
+				assertTrue(ids.get(i-1) < ids.get(i));
+			}
+		}
+		assertEquals(4, pbad.getPartitionCount());
+		assertEquals(0, pbad.getEvictedCount());
+	}
+
+
+	/**
+	 * A shard holding too many cards evicts the least recently used one,
+	 * whose purchases waiting for their block are discarded.
+	 */
+	@Test
+	public void leastRecentlyUsedPartitionsAreEvicted() throws InterruptedException {
+		List<String> created = new ArrayList<>();
+		PartitionedPBAD<Transazione,String,TidSet,String> pbad = newDetector(1, 2, created);
+		pbad.setMaxPartitions(2);
+
+		ItemDictionary<String> dictionary = new ItemDictionary<>();
+		String[] cards = {"c0", "c0", "c0", "c1", "c2", "c1", "c3", "c1", "c2"};
+		for(int i=0; i<cards.length; i++) {
+			pbad.accept(new Transazione(new String[] {Integer.toString(i), cards[i], "a", "b", "FALSE"}, dictionary));
+		}
+		pbad.shutdown();
+		assertTrue(pbad.awaitTermination(1, TimeUnit.MINUTES));
+
+		//c0 is evicted by c2, c2 by c3, and c3 by c2 again
+		assertEquals(Arrays.asList("c0", "c1", "c2", "c3", "c2"), created);
+		assertEquals(3, pbad.getEvictedCount());
+		assertEquals(2, pbad.getPartitionCount());
+		//the third purchase of c0 was waiting for the second block of c0
+		assertEquals(1, pbad.getDiscardedCount());
+	}
+
+
+
+	private static PartitionedPBAD<Transazione,String,TidSet,String> newDetector(int shards, int blockSize,
+			List<String> created) {
+		return new PartitionedPBAD<>(
+			Transazione::getCardId,
+			card -> {
+				if(created!=null) {
+					synchronized(created) {
+						created.add(card);
+					}
+				}
+				return new PBAD<>(PBADTest.getPBCD(blockSize), new FPOFAnomaly<>(PBADTest.MIN_SUP), 0.05);
+			},
+			shards, 16
+		);
+	}
+}